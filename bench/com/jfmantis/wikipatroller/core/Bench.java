@@ -0,0 +1,84 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * A very small benchmark runner
+ *
+ * Runs an operation over and over for a warmup period, then for a measured
+ * period, and reports how many times a second it ran and how much memory each
+ * run allocated (on JVMs whose ThreadMXBean can count that, which HotSpot's
+ * can).
+ */
+class Bench {
+
+	interface Op {
+		// the result is kept so that the work can't be optimised away
+		Object run() throws Exception;
+	}
+
+	private final long warmupMillis, measureMillis;
+
+	// results of every run end up in here
+	private int sink;
+
+	Bench(long warmupMillis, long measureMillis) {
+		this.warmupMillis = warmupMillis;
+		this.measureMillis = measureMillis;
+	}
+
+	static void printHeader() {
+		System.out.println(String.format(Locale.US, "%-40s %12s %12s %14s %12s", "benchmark", "ops/s", "ms/op",
+				"bytes/op", "MB/s alloc"));
+	}
+
+	void run(String name, Op op) throws Exception {
+		loop(op, warmupMillis);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long allocBefore = allocatedBytes(threads);
+		long start = System.nanoTime();
+		long ops = loop(op, measureMillis);
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes(threads) - allocBefore;
+
+		double seconds = elapsed / 1e9;
+		String bytesPerOp = "n/a", allocRate = "n/a";
+		if (allocBefore >= 0) {
+			bytesPerOp = String.format(Locale.US, "%d", allocated / ops);
+			allocRate = String.format(Locale.US, "%.1f", allocated / seconds / (1024 * 1024));
+		}
+
+		System.out.println(String.format(Locale.US, "%-40s %12.2f %12.3f %14s %12s", name, ops / seconds, seconds
+				* 1000 / ops, bytesPerOp, allocRate));
+	}
+
+	// runs op for at least the given time, and at least once
+	private long loop(Op op, long millis) throws Exception {
+		long end = System.nanoTime() + millis * 1000000;
+		long ops = 0;
+		do {
+			Object result = op.run();
+			sink += result == null ? 0 : result.hashCode();
+			ops++;
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	// bytes allocated by this thread so far, or -1 if the JVM can't say
+	private static long allocatedBytes(ThreadMXBean threads) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+			if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+				return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	int getSink() {
+		return sink;
+	}
+}
@@ -0,0 +1,241 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+import name.fraser.neil.plaintext.diff_match_patch.DiffList;
+import name.fraser.neil.plaintext.diff_match_patch.Operation;
+
+/**
+ * Benchmarks diffing on pairs of wikitext revisions
+ *
+ * For each pair, times diff_main(), diff_lineMode(), diff_linesToChars(),
+ * diff_cleanupSemantic(), diff_halfMatch(), diff_bisect() on the whole of
+ * both texts, and Wiki.genDiff() (the whole thing, as done for every change:
+ * by token, by character, and by token with parallel diffs on), and prints
+ * ops/s and bytes allocated per op.
+ *
+ * The cleanup passes are also timed on their own, on made-up lists of 75,000
+ * and 300,000 diffs, far longer than any pair gives, so that a pass that
+ * isn't linear in the length of the list shows up.
+ *
+ * Usage:
+ *
+ * DiffBenchmark [-fixtures DIR] [-warmup MS] [-time MS] [NAME...]
+ *     runs the built-in pairs plus any recorded into DIR and the cleanup
+ *     lists, or only the named ones ("cleanup" for the lists)
+ *
+ * DiffBenchmark record DOMAIN OLDREVID REVID NAME [DIR]
+ *     downloads a pair of revisions from a wiki into DIR (default
+ *     bench/fixtures)
+ */
+public class DiffBenchmark {
+	private static final String DEFAULT_FIXTURES = "bench/fixtures";
+
+	// lengths of the made-up lists the cleanup passes are timed on
+	private static final int[] CLEANUP_SIZES = { 75000, 300000 };
+
+	// exposes the steps of diff_main() that aren't public, which is why it
+	// has to be a subclass
+	private static class Differ extends diff_match_patch {
+		private static final long serialVersionUID = 1L;
+
+		DiffList lineMode(String text1, String text2) {
+			return diff_lineMode(text1, text2, System.currentTimeMillis() + (long) (Diff_Timeout * 1000));
+		}
+
+		Object linesToChars(String text1, String text2) {
+			return diff_linesToChars(text1, text2);
+		}
+
+		String[] halfMatch(String text1, String text2) {
+			return diff_halfMatch(text1, text2);
+		}
+
+		DiffList bisect(String text1, String text2) {
+			return diff_bisect(text1, text2, System.currentTimeMillis() + (long) (Diff_Timeout * 1000));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("record")) {
+			if (args.length < 5) {
+				System.err.println("usage: DiffBenchmark record DOMAIN OLDREVID REVID NAME [DIR]");
+				System.exit(1);
+			}
+			File dir = new File(args.length > 5 ? args[5] : DEFAULT_FIXTURES);
+			WikitextCorpus.record(new Wiki(args[1]), Long.parseLong(args[2]), Long.parseLong(args[3]), dir,
+					args[4]);
+			return;
+		}
+
+		File fixtures = new File(DEFAULT_FIXTURES);
+		long warmup = 2000, time = 5000;
+		List<String> names = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-fixtures")) {
+				fixtures = new File(args[++i]);
+			} else if (args[i].equals("-warmup")) {
+				warmup = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-time")) {
+				time = Long.parseLong(args[++i]);
+			} else {
+				names.add(args[i]);
+			}
+		}
+
+		List<WikitextCorpus.Pair> pairs = new WikitextCorpus(42).generate();
+		pairs.addAll(WikitextCorpus.load(fixtures));
+
+		Bench bench = new Bench(warmup, time);
+		Bench.printHeader();
+		for (WikitextCorpus.Pair pair : pairs) {
+			if (names.isEmpty() || names.contains(pair.name)) {
+				run(bench, pair);
+			}
+		}
+		if (names.isEmpty() || names.contains("cleanup")) {
+			for (int size : CLEANUP_SIZES) {
+				runCleanup(bench, size);
+			}
+		}
+	}
+
+	private static void runCleanup(Bench bench, int size) throws Exception {
+		final diff_match_patch differ = new diff_match_patch();
+		final DiffList raw = new DiffList(size);
+		Random random = new Random(size);
+		String letters = "abcdefgh ";
+		for (int i = 0; i < size; i++) {
+			// mostly runs of edits between short equalities, which is what
+			// gives the passes the most to merge and remove
+			Operation op = i % 5 == 0 ? Operation.EQUAL : Operation.values()[random.nextInt(3)];
+			StringBuilder text = new StringBuilder();
+			for (int j = random.nextInt(5); j >= 0; j--) {
+				text.append(letters.charAt(random.nextInt(letters.length())));
+			}
+			raw.add(new Diff(op, text.toString()));
+		}
+		String name = "cleanup." + size / 1000 + "k";
+
+		bench.run(name + ".diff_cleanupMerge", new Bench.Op() {
+			@Override
+			public Object run() {
+				DiffList diffs = copy(raw);
+				differ.diff_cleanupMerge(diffs);
+				return diffs;
+			}
+		});
+
+		bench.run(name + ".diff_cleanupSemantic", new Bench.Op() {
+			@Override
+			public Object run() {
+				DiffList diffs = copy(raw);
+				differ.diff_cleanupSemantic(diffs);
+				return diffs;
+			}
+		});
+
+		bench.run(name + ".diff_cleanupEfficiency", new Bench.Op() {
+			@Override
+			public Object run() {
+				DiffList diffs = copy(raw);
+				differ.diff_cleanupEfficiency(diffs);
+				return diffs;
+			}
+		});
+	}
+
+	// cleanup changes the list it's given, so each run works on a copy, and
+	// the time includes making it
+	private static DiffList copy(DiffList diffs) {
+		DiffList copy = new DiffList(diffs.size());
+		for (Diff d : diffs) {
+			copy.add(new Diff(d.operation, d.text));
+		}
+		return copy;
+	}
+
+	private static void run(Bench bench, final WikitextCorpus.Pair pair) throws Exception {
+		// set up the same way as Wiki's
+		final Differ differ = new Differ();
+		differ.Diff_RangeBisect = true;
+		final Wiki wiki = new Wiki("en.wikipedia.org");
+		final Wiki charWiki = new Wiki("en.wikipedia.org");
+		charWiki.setTokenDiffs(false);
+		final Wiki parallelWiki = new Wiki("en.wikipedia.org");
+		parallelWiki.setParallelDiffs(true);
+
+		final DiffList raw = differ.diff_main(pair.before, pair.after);
+
+		bench.run(pair.name + ".diff_main", new Bench.Op() {
+			@Override
+			public Object run() {
+				return differ.diff_main(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".diff_lineMode", new Bench.Op() {
+			@Override
+			public Object run() {
+				return differ.lineMode(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".diff_linesToChars", new Bench.Op() {
+			@Override
+			public Object run() {
+				return differ.linesToChars(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".diff_cleanupSemantic", new Bench.Op() {
+			@Override
+			public Object run() {
+				DiffList diffs = copy(raw);
+				differ.diff_cleanupSemantic(diffs);
+				return diffs;
+			}
+		});
+
+		bench.run(pair.name + ".diff_halfMatch", new Bench.Op() {
+			@Override
+			public Object run() {
+				return differ.halfMatch(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".diff_bisect", new Bench.Op() {
+			@Override
+			public Object run() {
+				return differ.bisect(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".genDiff", new Bench.Op() {
+			@Override
+			public Object run() {
+				return wiki.genDiff(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".genDiff.chars", new Bench.Op() {
+			@Override
+			public Object run() {
+				return charWiki.genDiff(pair.before, pair.after);
+			}
+		});
+
+		bench.run(pair.name + ".genDiff.parallel", new Bench.Op() {
+			@Override
+			public Object run() {
+				return parallelWiki.genDiff(pair.before, pair.after);
+			}
+		});
+	}
+}
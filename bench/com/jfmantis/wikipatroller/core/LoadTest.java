@@ -0,0 +1,249 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Patrols a StubApiServer as hard as it can, and reports how fast it went
+ *
+ * Each client thread has its own Wiki, logs in, and then keeps calling
+ * fetchRecentChanges() and rolling back some of what it gets, as someone
+ * clicking through changes in the app would. At the end it prints how many
+ * changes a second were fetched, and the p50 and p99 latency of each call.
+ *
+ * Usage: LoadTest [-clients N] [-duration SECONDS] [-rate EDITS_PER_SECOND]
+ * [-size ARTICLE_CHARS] [-pages N] [-latency MS] [-busy FRACTION]
+ * [-lag FRACTION] [-rollback FRACTION] [-batch N] [-reqrate REQUESTS_PER_SECOND]
+ * [-serverdiffs] [-cache DIR] [-diffcache DIR] [-http]
+ *
+ * The stub serves HTTPS, as real wikis do, since ConnectionPool only counts
+ * reused connections for HTTPS; -http turns that off.
+ *
+ * With -cache, the clients share a RevisionCache in DIR (emptied first), as
+ * several sessions on one device would. -diffcache does the same with a
+ * DiffCache.
+ */
+public class LoadTest {
+
+	// latencies of one kind of call, in nanoseconds
+	private static class Latencies {
+		private final List<Long> samples = new ArrayList<Long>();
+
+		synchronized void add(long nanos) {
+			samples.add(nanos);
+		}
+
+		synchronized int count() {
+			return samples.size();
+		}
+
+		synchronized String summary() {
+			if (samples.isEmpty()) {
+				return "none";
+			}
+			List<Long> sorted = new ArrayList<Long>(samples);
+			Collections.sort(sorted);
+			return String.format(Locale.US, "%d calls, p50 %.1f ms, p99 %.1f ms, max %.1f ms", sorted.size(),
+					percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+		}
+
+		private static long percentile(List<Long> sorted, int p) {
+			int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+			return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		StubApiServer.Config config = new StubApiServer.Config();
+		config.https = true;
+		int clients = 4, batch = 10;
+		long duration = 30;
+		double rollbackFraction = 0.1;
+		boolean serverDiffs = false;
+		double requestRate = 0;
+		File cacheDir = null, diffCacheDir = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-clients")) {
+				clients = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-duration")) {
+				duration = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-rate")) {
+				config.editRate = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-size")) {
+				config.articleSize = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-pages")) {
+				config.pages = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-latency")) {
+				config.latency = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-busy")) {
+				config.busyFraction = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-lag")) {
+				config.lagFraction = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-rollback")) {
+				rollbackFraction = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-batch")) {
+				batch = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-reqrate")) {
+				requestRate = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-serverdiffs")) {
+				serverDiffs = true;
+			} else if (args[i].equals("-cache")) {
+				cacheDir = new File(args[++i]);
+			} else if (args[i].equals("-http")) {
+				config.https = false;
+			} else if (args[i].equals("-diffcache")) {
+				diffCacheDir = new File(args[++i]);
+			} else {
+				System.err.println("unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		final StubApiServer server = new StubApiServer(config);
+		server.start(0);
+		if (config.https) {
+			ConnectionPool.setSSLContext(server.getSSLContext());
+		}
+
+		// all the clients share one scheduler, as they're all on one domain
+		if (requestRate > 0) {
+			RequestScheduler.forDomain("localhost").setRate(requestRate, (int) Math.ceil(requestRate));
+		}
+
+		final RevisionCache cache;
+		if (cacheDir != null) {
+			cache = new RevisionCache(cacheDir, Long.MAX_VALUE);
+			cache.clear();
+		} else {
+			cache = null;
+		}
+
+		final DiffCache diffCache;
+		if (diffCacheDir != null) {
+			diffCache = new DiffCache(Long.MAX_VALUE, diffCacheDir, Long.MAX_VALUE);
+			diffCache.clear();
+		} else {
+			diffCache = null;
+		}
+
+		final Latencies fetches = new Latencies();
+		final Latencies rollbacks = new Latencies();
+		final AtomicLong changes = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+
+		ConnectionPool.resetCounters();
+		RequestBuilder.resetByteCounters();
+
+		final long end = System.currentTimeMillis() + duration * 1000;
+		final int batchSize = batch;
+		final double fraction = rollbackFraction;
+		final boolean diffs = serverDiffs;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int c = 0; c < clients; c++) {
+			final int client = c;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(client);
+					Wiki wiki = new Wiki("localhost", server.getApiUrl());
+					wiki.setAnonsOnly(true);
+					wiki.setServerDiffs(diffs);
+					wiki.setRevisionCache(cache);
+					wiki.setDiffCache(diffCache);
+
+					try {
+						Wiki.LoginError error = wiki.login("Patroller" + client, "password");
+						if (error != null) {
+							System.err.println("client " + client + " couldn't log in: " + error);
+							return;
+						}
+					} catch (Exception e) {
+						System.err.println("client " + client + " couldn't log in: " + e);
+						return;
+					}
+
+					while (System.currentTimeMillis() < end) {
+						try {
+							long start = System.nanoTime();
+							Change[] fetched = wiki.fetchRecentChanges(batchSize);
+							fetches.add(System.nanoTime() - start);
+							changes.addAndGet(fetched.length);
+
+							if (fetched.length == 0) {
+								Thread.sleep(100);
+							}
+
+							for (Change change : fetched) {
+								if (random.nextDouble() >= fraction) {
+									continue;
+								}
+								start = System.nanoTime();
+								Wiki.RevertError error = wiki.rollback(change, "test");
+								rollbacks.add(System.nanoTime() - start);
+								count(outcomes, error == null ? "SUCCESS" : error.toString());
+							}
+						} catch (InterruptedException e) {
+							return;
+						} catch (Exception e) {
+							errors.incrementAndGet();
+						}
+					}
+				}
+			}, "LoadTest-" + c);
+			threads.add(thread);
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		server.stop();
+
+		System.out.println(String.format(Locale.US, "%d clients, %.1f s, %d edits made by the server", clients,
+				seconds, server.getEditsMade()));
+		System.out.println(String.format(Locale.US, "changes fetched: %d (%.1f/s), errors: %d", changes.get(),
+				changes.get() / seconds, errors.get()));
+		System.out.println("fetchRecentChanges: " + fetches.summary());
+		System.out.println("rollback: " + rollbacks.summary());
+		synchronized (outcomes) {
+			System.out.println("rollback results: " + outcomes);
+		}
+		System.out.println(String.format(Locale.US, "requests: %d, bytes: %d received, %d decoded",
+				ConnectionPool.getRequests(), RequestBuilder.getBytesReceived(), RequestBuilder.getBytesDecoded()));
+		if (config.https) {
+			System.out.println(String.format(Locale.US, "connections: %d reused, %d opened, %d full handshakes",
+					ConnectionPool.getHits(), ConnectionPool.getMisses(), ConnectionPool.getFullHandshakes()));
+		}
+		if (cache != null) {
+			System.out.println(String.format(Locale.US, "revision cache: %d hits, %d misses, %d files, %d bytes",
+					cache.getHits(), cache.getMisses(), cache.count(), cache.size()));
+		}
+		if (diffCache != null) {
+			System.out.println(String.format(Locale.US,
+					"diff cache: %d hits, %d from disk, %d misses (%.0f%%), %d diffs, %d bytes on disk",
+					diffCache.getHits(), diffCache.getDiskHits(), diffCache.getMisses(), 100 * diffCache.getHitRate(),
+					diffCache.count(), diffCache.diskSize()));
+		}
+	}
+
+	private static void count(Map<String, Integer> outcomes, String outcome) {
+		synchronized (outcomes) {
+			Integer n = outcomes.get(outcome);
+			outcomes.put(outcome, n == null ? 1 : n + 1);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Patrols several StubApiServers at once through one MultiWikiSource and
+ * ChangePipeline, and reports how many changes came from each
+ *
+ * The first wiki gets -rate edits per second and each one after it half as
+ * many as the one before, so the busy wikis should be polled often and the
+ * quiet ones rarely. A reviewer thread takes changes off the pipeline as fast
+ * as they're ready.
+ *
+ * Usage: MultiWikiLoadTest [-wikis N] [-duration SECONDS] [-rate EDITS_PER_SECOND]
+ * [-size ARTICLE_CHARS] [-latency MS] [-target N]
+ */
+public class MultiWikiLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		int wikiCount = 8, target = 20;
+		long duration = 30;
+		double rate = 20;
+		int size = 5000;
+		long latency = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-wikis")) {
+				wikiCount = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-duration")) {
+				duration = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-rate")) {
+				rate = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-size")) {
+				size = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-latency")) {
+				latency = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-target")) {
+				target = Integer.parseInt(args[++i]);
+			} else {
+				System.err.println("unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		List<StubApiServer> servers = new ArrayList<StubApiServer>();
+		List<Wiki> wikis = new ArrayList<Wiki>();
+		for (int i = 0; i < wikiCount; i++) {
+			StubApiServer.Config config = new StubApiServer.Config();
+			config.editRate = rate / (1 << i);
+			config.articleSize = size;
+			config.latency = latency;
+			config.threads = 4;
+
+			StubApiServer server = new StubApiServer(config);
+			server.start(0);
+			servers.add(server);
+
+			// a different domain for each, as each has its own revids and
+			// its own rate limit
+			Wiki wiki = new Wiki("wiki" + i + ".localhost", server.getApiUrl());
+			wiki.setAnonsOnly(false);
+			wikis.add(wiki);
+		}
+
+		ConnectionPool.resetCounters();
+
+		final Map<Wiki, AtomicLong> reviewed = new HashMap<Wiki, AtomicLong>();
+		for (Wiki wiki : wikis) {
+			reviewed.put(wiki, new AtomicLong());
+		}
+		final AtomicLong errors = new AtomicLong();
+		final Object signal = new Object();
+
+		MultiWikiSource source = new MultiWikiSource(wikis);
+		ChangePipeline pipeline = new ChangePipeline(wikis.get(0), target, new ChangePipeline.Listener() {
+			@Override
+			public void onChangeReady() {
+				synchronized (signal) {
+					signal.notifyAll();
+				}
+			}
+
+			@Override
+			public void onError(Exception e) {
+				errors.incrementAndGet();
+			}
+		});
+		pipeline.setSource(source);
+
+		long start = System.nanoTime();
+		long end = System.currentTimeMillis() + duration * 1000;
+		int peakThreads = 0;
+		pipeline.start();
+
+		while (System.currentTimeMillis() < end) {
+			Change change = pipeline.poll();
+			if (change == null) {
+				synchronized (signal) {
+					signal.wait(100);
+				}
+			} else {
+				reviewed.get(change.getWiki()).incrementAndGet();
+			}
+			peakThreads = Math.max(peakThreads, Thread.activeCount());
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pipeline.stop();
+
+		System.out.println(String.format(Locale.US, "%d wikis, %.1f s, errors: %d, requests: %d, peak threads: %d",
+				wikiCount, seconds, errors.get(), ConnectionPool.getRequests(), peakThreads));
+		System.out.println(String.format(Locale.US, "%-20s %10s %10s %10s %10s", "wiki", "edits/s", "estimated",
+				"edits", "reviewed"));
+
+		long total = 0;
+		for (int i = 0; i < wikiCount; i++) {
+			Wiki wiki = wikis.get(i);
+			StubApiServer server = servers.get(i);
+			long count = reviewed.get(wiki).get();
+			total += count;
+			System.out.println(String.format(Locale.US, "%-20s %10.2f %10.2f %10d %10d", wiki.getDomain(), rate
+					/ (1 << i), source.getEditRate(wiki), server.getEditsMade(), count));
+			server.stop();
+		}
+		System.out.println(String.format(Locale.US, "reviewed: %d (%.1f/s)", total, total / seconds));
+
+		// the shared fetch threads aren't daemons
+		System.exit(0);
+	}
+}
@@ -0,0 +1,82 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+/**
+ * Benchmarks scoring a batch of diffed changes with the default
+ * VandalismScorer, as the pipeline does after each diff.
+ *
+ * Usage: ScoreBenchmark [-warmup MS] [-time MS] [-batch N]
+ */
+public class ScoreBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		long warmup = 2000, time = 5000;
+		int batch = 500;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-warmup")) {
+				warmup = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-time")) {
+				time = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-batch")) {
+				batch = Integer.parseInt(args[++i]);
+			}
+		}
+
+		final List<Change> changes = makeChanges(batch);
+		final ChangeScorer scorer = new VandalismScorer();
+
+		Bench bench = new Bench(warmup, time);
+		Bench.printHeader();
+		bench.run("score." + batch + "changes", new Bench.Op() {
+			@Override
+			public Object run() {
+				double total = 0;
+				for (Change change : changes) {
+					total += scorer.score(change);
+				}
+				return total;
+			}
+		});
+	}
+
+	// changes with diffs, made from the revision pairs in WikitextCorpus
+	private static List<Change> makeChanges(int count) throws Exception {
+		WikitextCorpus corpus = new WikitextCorpus(7);
+		Wiki wiki = new Wiki("en.wikipedia.org");
+		Random random = new Random(7);
+
+		List<WikitextCorpus.Pair> pairs = new ArrayList<WikitextCorpus.Pair>();
+		pairs.add(corpus.smallVandalism());
+		pairs.add(corpus.sectionBlanking());
+		pairs.add(corpus.botReformatting());
+
+		List<Change> changes = new ArrayList<Change>();
+		for (int i = 0; i < count; i++) {
+			WikitextCorpus.Pair pair = pairs.get(i % pairs.size());
+
+			JSONObject json = new JSONObject();
+			json.put("user", random.nextBoolean() ? "192.0.2." + random.nextInt(256) : "Editor" + i);
+			json.put("title", "Article " + i);
+			json.put("comment", random.nextBoolean() ? "" : "copyedit");
+			json.put("timestamp", "2014-01-01T00:00:00Z");
+			json.put("rcid", i);
+			json.put("revid", 1000 + i);
+			json.put("old_revid", 999 + i);
+			json.put("pageid", i);
+			json.put("oldlen", pair.before.length());
+			json.put("newlen", pair.after.length());
+
+			Change change = new Change(json);
+			change.setDiff(wiki.genDiff(pair.before, pair.after));
+			changes.add(change);
+		}
+
+		return changes;
+	}
+}
@@ -0,0 +1,167 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.json.JSONArray;
+
+/**
+ * Runs a RecentChangesStream against a StubEventStream that keeps dropping
+ * the connection, and checks that it copes
+ *
+ * Every event has to arrive exactly once and in order, each reconnect has to
+ * carry a Last-Event-ID, and the waits between the failed attempts at the end
+ * have to grow. Once the stream gives up, ChangePipeline.streamSource() has to
+ * go back to polling, here a StubApiServer. Streamed changes aren't filtered
+ * to one per page, so it also has Wiki.fetchDiffs() diff several edits in a
+ * row to a single page. Prints what it saw and exits with 1 if any check
+ * failed.
+ *
+ * Usage: StreamTest [-events N] [-per CONNECTION] [-retry MS]
+ */
+public class StreamTest {
+
+	private static final String DOMAIN = "stream.localhost";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		int total = 150, perConnection = 40;
+		long retry = 50;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-events")) {
+				total = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-per")) {
+				perConnection = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-retry")) {
+				retry = Long.parseLong(args[++i]);
+			} else {
+				System.err.println("unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		StubApiServer api = new StubApiServer(new StubApiServer.Config());
+		api.start(0);
+		StubEventStream stub = new StubEventStream(DOMAIN, total, perConnection, retry);
+		stub.start();
+
+		Wiki wiki = new Wiki(DOMAIN, api.getApiUrl());
+		wiki.setAnonsOnly(true);
+
+		final List<Long> received = new ArrayList<Long>();
+		RecentChangesStream stream = new RecentChangesStream(stub.getUrl(), wiki,
+				new RecentChangesStream.Listener() {
+					@Override
+					public void onChange(Change change) {
+						synchronized (received) {
+							received.add(change.getRevid());
+						}
+					}
+				});
+
+		long start = System.currentTimeMillis();
+		stream.start();
+		while (stream.isRunning() && System.currentTimeMillis() - start < 30000) {
+			Thread.sleep(20);
+		}
+		check(!stream.isRunning(), "stream gave up after the service went down");
+
+		// every event, once, in order
+		List<Long> expected = new ArrayList<Long>();
+		for (int n = 1; n <= total; n++) {
+			expected.add(StubEventStream.revid(n));
+		}
+		synchronized (received) {
+			System.out.println(String.format(Locale.US, "events: %d sent, %d received", total, received.size()));
+			check(received.equals(expected), "no event lost or duplicated");
+		}
+		check(String.valueOf(total).equals(stream.getLastEventId()), "last event id is " + total);
+
+		List<StubEventStream.Attempt> attempts = stub.getAttempts();
+		List<Long> waits = new ArrayList<Long>();
+		for (int i = 0; i < attempts.size(); i++) {
+			StubEventStream.Attempt attempt = attempts.get(i);
+			System.out.println(String.format(Locale.US, "connection %d: Last-Event-ID %s%s", i + 1,
+					attempt.lastEventId, attempt.refused ? ", refused" : ""));
+			if (i == 0) {
+				check(attempt.lastEventId == null, "first connection starts from the beginning");
+			} else {
+				check(attempt.lastEventId != null, "reconnect " + i + " resumes with Last-Event-ID");
+				if (attempts.get(i - 1).refused) {
+					waits.add(attempt.time - attempts.get(i - 1).time);
+				}
+			}
+		}
+
+		// after the first refusal the wait starts at retry and doubles
+		System.out.println("waits between refused attempts (ms): " + waits);
+		check(!waits.isEmpty(), "reconnected after a refusal");
+		for (int i = 0; i < waits.size(); i++) {
+			long least = retry << (i + 1);
+			check(waits.get(i) >= least, String.format(Locale.US, "wait %d is at least %d ms", i + 1, least));
+		}
+
+		// with the stream gone and nothing left in the queue, the source polls
+		Thread.sleep(500);
+		ChangePipeline.Source source = ChangePipeline.streamSource(stream, new LinkedBlockingQueue<Change>(), wiki);
+		List<Change> polled = source.next(10);
+		System.out.println(String.format(Locale.US, "polled after giving up: %d changes", polled.size()));
+		check(!polled.isEmpty(), "falls back to polling");
+
+		stub.stop();
+		api.stop();
+
+		checkConsecutiveEdits();
+
+		System.out.println(failures == 0 ? "passed" : failures + " checks failed");
+
+		// the shared fetch threads aren't daemons
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// each edit's old revision is the previous one's new revision
+	private static void checkConsecutiveEdits() throws Exception {
+		StubApiServer.Config config = new StubApiServer.Config();
+		config.pages = 1;
+		config.editRate = 100;
+		StubApiServer api = new StubApiServer(config);
+		api.start(0);
+		Thread.sleep(100);
+
+		Wiki wiki = new Wiki(DOMAIN, api.getApiUrl());
+		JSONArray list = api.allRecentChanges();
+		List<Change> changes = new ArrayList<Change>();
+		for (int i = 0; i < list.length(); i++) {
+			Change change = new Change(list.getJSONObject(i));
+			change.setWiki(wiki);
+			changes.add(change);
+		}
+		check(changes.size() >= 2, "several edits to the same page");
+
+		boolean diffed = true;
+		try {
+			wiki.fetchDiffs(changes);
+		} catch (Exception e) {
+			System.out.println(e);
+			diffed = false;
+		}
+		for (Change change : changes) {
+			diffed &= change.getDiff() != null && change.getPrevUser() != null;
+		}
+		System.out.println(String.format(Locale.US, "edits in a row to one page: %d", changes.size()));
+		check(diffed, "every edit in a row to one page is diffed");
+
+		api.stop();
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			System.out.println("FAILED: " + what);
+			failures++;
+		}
+	}
+}
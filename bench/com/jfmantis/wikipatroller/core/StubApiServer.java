@@ -0,0 +1,684 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * A fake api.php for testing against, instead of a real wiki
+ *
+ * Makes up edits to a set of generated articles at a steady rate, and answers
+ * the requests Wiki makes: list=recentchanges, prop=revisions (with content,
+ * rvdiffto=prev or rvtoken=rollback), meta=tokens, list=users, action=login
+ * and action=rollback. Every user can log in with any password and has the
+ * rollback right. Each response can be held back for a fixed time to
+ * simulate a distant server, and some can be turned away as if the server
+ * were overloaded or lagged.
+ *
+ * With https set, it serves HTTPS with a certificate made up on start (using
+ * the JDK's keytool), which getSSLContext() trusts.
+ */
+class StubApiServer {
+
+	static class Config {
+		// edits made per second, across all pages
+		double editRate = 20;
+
+		// number of pages, and the length of their text
+		int pages = 200;
+		int articleSize = 10000;
+
+		// fraction of edits made by anonymous users
+		double anonFraction = 0.7;
+
+		// how long each request takes to answer, in milliseconds
+		long latency = 0;
+
+		// fraction of requests turned away with HTTP 429, and of requests
+		// with maxlag turned away with a maxlag error
+		double busyFraction = 0;
+		double lagFraction = 0;
+
+		int threads = 16;
+
+		// serve HTTPS instead of HTTP
+		boolean https = false;
+	}
+
+	private static final String PATH = "/w/api.php";
+
+	private static final String ROLLBACK_TOKEN = "0123456789abcdef+\\";
+
+	private static class Revision {
+		final long revid, parentid;
+		final String user, comment, timestamp, text;
+
+		Revision(long revid, long parentid, String user, String comment, String timestamp, String text) {
+			this.revid = revid;
+			this.parentid = parentid;
+			this.user = user;
+			this.comment = comment;
+			this.timestamp = timestamp;
+			this.text = text;
+		}
+	}
+
+	private static class Page {
+		final long pageid;
+		final String title;
+		final List<Revision> revisions = new ArrayList<Revision>();
+
+		Page(long pageid, String title) {
+			this.pageid = pageid;
+			this.title = title;
+		}
+
+		Revision latest() {
+			return revisions.get(revisions.size() - 1);
+		}
+	}
+
+	private static class RecentChange {
+		final long rcid;
+		final Page page;
+		final Revision revision, previous;
+		final boolean anon;
+
+		RecentChange(long rcid, Page page, Revision revision, Revision previous, boolean anon) {
+			this.rcid = rcid;
+			this.page = page;
+			this.revision = revision;
+			this.previous = previous;
+			this.anon = anon;
+		}
+	}
+
+	private static final String[] VANDALISM = { "LOL ", "this is so dumb ", "JOHN WAS HERE ", "poop ",
+			"HAHAHAHA ", "i like turtles " };
+
+	private final Config config;
+	private final Random random = new Random(1);
+	private final WikitextCorpus corpus = new WikitextCorpus(1);
+	private final SimpleDateFormat timestampFormat;
+
+	// everything below is guarded by this
+	private final List<Page> pages = new ArrayList<Page>();
+	private final Map<String, Page> byTitle = new HashMap<String, Page>();
+	private final Map<Long, Revision> byRevid = new HashMap<Long, Revision>();
+	private final Map<Long, Page> pageOfRevid = new HashMap<Long, Page>();
+	private final List<RecentChange> recentChanges = new ArrayList<RecentChange>();
+	private long nextRevid = 1000, nextRcid = 1;
+	private long startTime, editsMade;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private SSLContext sslContext;
+
+	StubApiServer(Config config) {
+		this.config = config;
+
+		timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		String now = timestamp();
+		for (int i = 0; i < config.pages; i++) {
+			Page page = new Page(i + 1, "Article " + (i + 1));
+			addRevision(page, new Revision(nextRevid++, 0, "Creator", "new article", now,
+					corpus.article(config.articleSize)));
+			pages.add(page);
+			byTitle.put(page.title, page);
+		}
+	}
+
+	// starts listening on the given port, or any free one if it's 0
+	synchronized void start(int port) throws IOException {
+		startTime = System.currentTimeMillis();
+
+		if (config.https) {
+			sslContext = selfSignedContext();
+			HttpsServer https = HttpsServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+			https.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+			server = https;
+		} else {
+			server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		}
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		executor = Executors.newFixedThreadPool(config.threads);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	// every edit made so far, oldest first, as list=recentchanges gives them
+	synchronized JSONArray allRecentChanges() throws JSONException {
+		catchUp();
+		JSONArray list = new JSONArray();
+		for (RecentChange rc : recentChanges) {
+			list.put(toJSON(rc));
+		}
+		return list;
+	}
+
+	String getApiUrl() {
+		return (config.https ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort() + PATH;
+	}
+
+	// with https set, a context that trusts the server's certificate, for
+	// ConnectionPool.setSSLContext()
+	SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	// has keytool make a key and certificate for 127.0.0.1, and uses them
+	// both to serve and to trust
+	private static SSLContext selfSignedContext() throws IOException {
+		char[] password = "stubstub".toCharArray();
+		File file = File.createTempFile("stub", ".p12");
+		file.delete();
+		try {
+			String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+			Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "stub", "-keyalg", "RSA",
+					"-keysize", "2048", "-validity", "2", "-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1",
+					"-storetype", "PKCS12", "-keystore", file.getPath(), "-storepass", new String(password))
+					.redirectErrorStream(true).start();
+			readBody(process.getInputStream());
+			if (process.waitFor() != 0) {
+				throw new IOException("keytool failed");
+			}
+
+			KeyStore store = KeyStore.getInstance("PKCS12");
+			FileInputStream in = new FileInputStream(file);
+			try {
+				store.load(in, password);
+			} finally {
+				in.close();
+			}
+
+			KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			keys.init(store, password);
+			TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			trust.init(store);
+
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+			return context;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to set up TLS: " + e.getMessage());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted running keytool");
+		} finally {
+			file.delete();
+		}
+	}
+
+	synchronized long getEditsMade() {
+		return editsMade;
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+			if (exchange.getRequestMethod().equals("POST")) {
+				params.putAll(parseParams(readBody(exchange.getRequestBody())));
+			}
+
+			if (config.latency > 0) {
+				Thread.sleep(config.latency);
+			}
+
+			JSONObject response = null;
+			synchronized (this) {
+				if (random.nextDouble() < config.busyFraction) {
+					exchange.getResponseHeaders().add("Retry-After", "1");
+					send(exchange, 429, "Too many requests");
+					return;
+				}
+				if (params.containsKey("maxlag") && random.nextDouble() < config.lagFraction) {
+					exchange.getResponseHeaders().add("MediaWiki-API-Error", "maxlag");
+					exchange.getResponseHeaders().add("X-Database-Lag", "7");
+					exchange.getResponseHeaders().add("Retry-After", "1");
+					response = error("maxlag", "Waiting for a database server: 7 seconds lagged");
+				} else {
+					catchUp();
+					response = answer(params, exchange);
+				}
+			}
+
+			send(exchange, 200, response.toString());
+		} catch (InterruptedException e) {
+			send(exchange, 503, "{}");
+		} catch (Exception e) {
+			send(exchange, 500, "{\"error\":{\"code\":\"internal_api_error\",\"info\":" + JSONObject.quote(e.toString())
+					+ "}}");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private JSONObject answer(Map<String, String> params, HttpExchange exchange) throws JSONException {
+		String action = value(params, "action");
+
+		if (action.equals("login")) {
+			return login(params, exchange);
+		} else if (action.equals("rollback")) {
+			return rollback(params);
+		} else if (action.equals("query")) {
+			if (value(params, "list").equals("recentchanges")) {
+				return recentChanges(params);
+			} else if (value(params, "list").equals("users")) {
+				return users(params);
+			} else if (value(params, "prop").equals("revisions")) {
+				return revisions(params);
+			} else if (value(params, "meta").equals("tokens")) {
+				return new JSONObject().put("batchcomplete", "").put("query",
+						new JSONObject().put("tokens", new JSONObject().put("rollbacktoken", ROLLBACK_TOKEN)));
+			}
+		}
+
+		return error("unknown_action", "Unrecognized request");
+	}
+
+	private JSONObject login(Map<String, String> params, HttpExchange exchange) throws JSONException {
+		JSONObject login = new JSONObject();
+		if (value(params, "lgtoken").length() == 0) {
+			exchange.getResponseHeaders().add("Set-Cookie", "stubwiki_session=" + random.nextInt(1000000)
+					+ "; path=/; HttpOnly");
+			login.put("result", "NeedToken");
+			login.put("token", Long.toHexString(random.nextLong()));
+		} else {
+			login.put("result", "Success");
+			login.put("lgusername", value(params, "lgname"));
+		}
+		return new JSONObject().put("login", login);
+	}
+
+	private JSONObject users(Map<String, String> params) throws JSONException {
+		JSONArray users = new JSONArray();
+		for (String name : value(params, "ususers").split("\\|")) {
+			JSONObject user = new JSONObject();
+			user.put("userid", Math.abs(name.hashCode()));
+			user.put("name", name);
+			user.put("editcount", 12345);
+			user.put("registration", "2010-01-01T00:00:00Z");
+			user.put("groups", new JSONArray().put("*").put("user").put("rollbacker"));
+			user.put("rights", new JSONArray().put("read").put("edit").put("rollback"));
+			users.put(user);
+		}
+		return new JSONObject().put("query", new JSONObject().put("users", users));
+	}
+
+	private JSONObject recentChanges(Map<String, String> params) throws JSONException {
+		boolean anonOnly = value(params, "rcshow").equals("anon");
+		boolean newer = value(params, "rcdir").equals("newer");
+		String start = value(params, "rcstart");
+		int limit = Math.min(Integer.parseInt(value(params, "rclimit", "10")), 500);
+
+		// rccontinue is "timestamp|rcid" of the next change to return
+		long continueRcid = -1;
+		String rccontinue = value(params, "rccontinue");
+		if (rccontinue.length() > 0) {
+			continueRcid = Long.parseLong(rccontinue.substring(rccontinue.indexOf('|') + 1));
+		}
+
+		JSONArray list = new JSONArray();
+		RecentChange next = null;
+
+		int n = recentChanges.size();
+		for (int i = 0; i < n; i++) {
+			RecentChange rc = recentChanges.get(newer ? i : n - 1 - i);
+			if (anonOnly && !rc.anon) {
+				continue;
+			}
+			if (start.length() > 0) {
+				int cmp = rc.revision.timestamp.compareTo(start);
+				if (newer ? cmp < 0 : cmp > 0) {
+					continue;
+				}
+			}
+			if (continueRcid != -1 && (newer ? rc.rcid < continueRcid : rc.rcid > continueRcid)) {
+				continue;
+			}
+
+			if (list.length() == limit) {
+				next = rc;
+				break;
+			}
+			list.put(toJSON(rc));
+		}
+
+		JSONObject response = new JSONObject();
+		response.put("batchcomplete", "");
+		if (next != null) {
+			response.put("continue", new JSONObject().put("rccontinue", next.revision.timestamp + "|" + next.rcid)
+					.put("continue", "-||"));
+		}
+		response.put("query", new JSONObject().put("recentchanges", list));
+		return response;
+	}
+
+	private JSONObject toJSON(RecentChange rc) throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("type", "edit");
+		json.put("ns", 0);
+		json.put("title", rc.page.title);
+		json.put("pageid", rc.page.pageid);
+		json.put("revid", rc.revision.revid);
+		json.put("old_revid", rc.previous.revid);
+		json.put("rcid", rc.rcid);
+		json.put("user", rc.revision.user);
+		if (rc.anon) {
+			json.put("anon", "");
+		}
+		json.put("oldlen", rc.previous.text.length());
+		json.put("newlen", rc.revision.text.length());
+		json.put("timestamp", rc.revision.timestamp);
+		json.put("comment", rc.revision.comment);
+		return json;
+	}
+
+	private JSONObject revisions(Map<String, String> params) throws JSONException {
+		JSONObject pages = new JSONObject();
+
+		if (value(params, "rvtoken").equals("rollback")) {
+			for (String title : value(params, "titles").split("\\|")) {
+				Page page = byTitle.get(title);
+				if (page == null) {
+					pages.put("-1", new JSONObject().put("title", title).put("missing", ""));
+					continue;
+				}
+
+				JSONObject revision = revisionJSON(page.latest(), "ids|user");
+				revision.put("rollbacktoken", ROLLBACK_TOKEN);
+				pages.put(Long.toString(page.pageid), pageJSON(page).put("revisions", new JSONArray().put(revision)));
+			}
+			return new JSONObject().put("query", new JSONObject().put("pages", pages));
+		}
+
+		String rvprop = value(params, "rvprop", "ids|timestamp|flags|comment|user");
+		boolean diffToPrev = value(params, "rvdiffto").equals("prev");
+
+		for (String id : value(params, "revids").split("\\|")) {
+			if (id.length() == 0) {
+				continue;
+			}
+			long revid = Long.parseLong(id);
+			Revision revision = byRevid.get(revid);
+			if (revision == null) {
+				continue;
+			}
+
+			Page page = pageOfRevid.get(revid);
+			JSONObject pageJSON = pages.optJSONObject(Long.toString(page.pageid));
+			if (pageJSON == null) {
+				pageJSON = pageJSON(page).put("revisions", new JSONArray());
+				pages.put(Long.toString(page.pageid), pageJSON);
+			}
+
+			JSONObject revisionJSON = revisionJSON(revision, rvprop);
+			if (diffToPrev) {
+				Revision previous = byRevid.get(revision.parentid);
+				String html = diffHtml(previous == null ? "" : previous.text, revision.text);
+				revisionJSON.put("diff", new JSONObject().put("from", revision.parentid).put("to", revision.revid)
+						.put("*", html));
+			}
+			pageJSON.getJSONArray("revisions").put(revisionJSON);
+		}
+
+		return new JSONObject().put("batchcomplete", "").put("query", new JSONObject().put("pages", pages));
+	}
+
+	private JSONObject pageJSON(Page page) throws JSONException {
+		return new JSONObject().put("pageid", page.pageid).put("ns", 0).put("title", page.title);
+	}
+
+	private JSONObject revisionJSON(Revision revision, String rvprop) throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("revid", revision.revid);
+		json.put("parentid", revision.parentid);
+		for (String prop : rvprop.split("\\|")) {
+			if (prop.equals("user")) {
+				json.put("user", revision.user);
+			} else if (prop.equals("timestamp")) {
+				json.put("timestamp", revision.timestamp);
+			} else if (prop.equals("comment")) {
+				json.put("comment", revision.comment);
+			} else if (prop.equals("sizes")) {
+				json.put("size", revision.text.length());
+			} else if (prop.equals("content")) {
+				json.put("contentformat", "text/x-wiki");
+				json.put("contentmodel", "wikitext");
+				json.put("*", revision.text);
+			}
+		}
+		return json;
+	}
+
+	private JSONObject rollback(Map<String, String> params) throws JSONException {
+		Page page = byTitle.get(value(params, "title"));
+		String user = value(params, "user");
+
+		if (page == null) {
+			return error("missingtitle", "The page you specified doesn't exist");
+		}
+		if (!value(params, "token").equals(ROLLBACK_TOKEN)) {
+			return error("badtoken", "Invalid token");
+		}
+
+		Revision latest = page.latest();
+		if (!latest.user.equals(user)) {
+			return error("alreadyrolled", "The page has already been rolled back");
+		}
+
+		Revision target = null;
+		for (int i = page.revisions.size() - 1; i >= 0 && target == null; i--) {
+			if (!page.revisions.get(i).user.equals(user)) {
+				target = page.revisions.get(i);
+			}
+		}
+		if (target == null) {
+			return error("onlyauthor", "The page you tried to rollback only has one author");
+		}
+
+		String summary = value(params, "summary");
+		Revision revision = new Revision(nextRevid++, latest.revid, "Patroller", summary, timestamp(), target.text);
+		addRevision(page, revision);
+
+		JSONObject rollback = new JSONObject();
+		rollback.put("title", page.title);
+		rollback.put("pageid", page.pageid);
+		rollback.put("summary", summary);
+		rollback.put("revid", revision.revid);
+		rollback.put("old_revid", latest.revid);
+		rollback.put("last_revid", target.revid);
+		return new JSONObject().put("rollback", rollback);
+	}
+
+	private JSONObject error(String code, String info) throws JSONException {
+		return new JSONObject().put("error", new JSONObject().put("code", code).put("info", info));
+	}
+
+	// makes the edits that should have happened by now
+	private void catchUp() {
+		long due = (long) ((System.currentTimeMillis() - startTime) / 1000.0 * config.editRate);
+		while (editsMade < due) {
+			// stamped with when it should have happened, so the timestamps
+			// show the edit rate
+			makeEdit(timestampFormat.format(new Date(startTime + (long) (editsMade * 1000 / config.editRate))));
+			editsMade++;
+		}
+	}
+
+	private void makeEdit(String timestamp) {
+		Page page = pages.get(random.nextInt(pages.size()));
+		Revision previous = page.latest();
+		boolean anon = random.nextDouble() < config.anonFraction;
+
+		String user = anon ? "192.0.2." + random.nextInt(256) : "Editor" + random.nextInt(1000);
+
+		String text = previous.text;
+		int pos = text.indexOf(' ', random.nextInt(text.length()));
+		if (pos == -1) {
+			pos = text.length();
+		}
+		String comment;
+		if (random.nextInt(3) == 0) {
+			// replace a sentence, keeping the article from growing forever
+			int end = text.indexOf(". ", pos);
+			end = end == -1 ? text.length() : end + 2;
+			text = text.substring(0, pos + 1) + corpus.sentence() + " " + text.substring(end);
+			comment = "copyedit";
+		} else {
+			text = text.substring(0, pos + 1) + VANDALISM[random.nextInt(VANDALISM.length)] + text.substring(pos + 1);
+			comment = "";
+		}
+
+		Revision revision = new Revision(nextRevid++, previous.revid, user, comment, timestamp, text);
+		addRevision(page, revision);
+		recentChanges.add(new RecentChange(nextRcid++, page, revision, previous, anon));
+	}
+
+	private void addRevision(Page page, Revision revision) {
+		page.revisions.add(revision);
+		byRevid.put(revision.revid, revision);
+		pageOfRevid.put(revision.revid, page);
+	}
+
+	private String timestamp() {
+		return timestampFormat.format(new Date());
+	}
+
+	// the changed lines, in the table rows MediaWiki uses
+	private static String diffHtml(String before, String after) {
+		String[] oldLines = before.split("\n", -1);
+		String[] newLines = after.split("\n", -1);
+		StringBuilder html = new StringBuilder();
+
+		for (int i = 0; i < Math.max(oldLines.length, newLines.length); i++) {
+			String oldLine = i < oldLines.length ? oldLines[i] : null;
+			String newLine = i < newLines.length ? newLines[i] : null;
+			if (oldLine != null && oldLine.equals(newLine)) {
+				continue;
+			}
+
+			html.append("<tr><td colspan=\"2\" class=\"diff-lineno\">Line ").append(i + 1)
+					.append(":</td><td colspan=\"2\" class=\"diff-lineno\">Line ").append(i + 1).append(":</td></tr>\n");
+			html.append("<tr>");
+			if (oldLine != null) {
+				html.append("<td class=\"diff-marker\">&#8722;</td><td class=\"diff-deletedline\"><div>")
+						.append(escape(oldLine)).append("</div></td>");
+			}
+			if (newLine != null) {
+				html.append("<td class=\"diff-marker\">+</td><td class=\"diff-addedline\"><div>")
+						.append(escape(newLine)).append("</div></td>");
+			}
+			html.append("</tr>\n");
+		}
+
+		return html.toString();
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	private void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (accept != null && accept.contains("gzip")) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+			gzip.write(bytes);
+			gzip.close();
+			bytes = buffer.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		for (int n; (n = in.read(buf)) != -1;) {
+			buffer.write(buf, 0, n);
+		}
+		return buffer.toString("UTF-8");
+	}
+
+	private static Map<String, String> parseParams(String query) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+
+		for (String pair : query.split("&")) {
+			if (pair.length() == 0) {
+				continue;
+			}
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq == -1 ? pair : pair.substring(0, eq), "UTF-8");
+			String value = eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			params.put(key, value);
+		}
+		return params;
+	}
+
+	private static String value(Map<String, String> params, String key) {
+		return value(params, key, "");
+	}
+
+	private static String value(Map<String, String> params, String key, String fallback) {
+		String value = params.get(key);
+		return value == null ? fallback : value;
+	}
+}
@@ -0,0 +1,165 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A fake EventStreams recentchange endpoint for testing RecentChangesStream
+ *
+ * Serves a fixed list of edits, numbered from 1, as server-sent events. Each
+ * connection starts after the event named in its Last-Event-ID header, sends
+ * up to perConnection events and the first half of the next one, and then
+ * resets the connection. Once every event has been sent, it turns every
+ * connection away with HTTP 503, as if the service had gone down.
+ *
+ * It speaks just enough HTTP by hand to be able to cut a connection off in
+ * the middle, which HttpServer can't do.
+ */
+class StubEventStream {
+
+	static class Attempt {
+		// when the connection came in, in milliseconds
+		final long time;
+
+		// the Last-Event-ID it sent, or null
+		final String lastEventId;
+
+		// whether it was turned away
+		final boolean refused;
+
+		Attempt(long time, String lastEventId, boolean refused) {
+			this.time = time;
+			this.lastEventId = lastEventId;
+			this.refused = refused;
+		}
+	}
+
+	private static final long BASE_REVID = 1000;
+
+	private final String domain;
+	private final int total, perConnection;
+	private final long retry;
+
+	private final List<Attempt> attempts = new ArrayList<Attempt>();
+
+	private ServerSocket server;
+
+	// retry is sent to the client as the time to wait before reconnecting
+	StubEventStream(String domain, int total, int perConnection, long retry) {
+		this.domain = domain;
+		this.total = total;
+		this.perConnection = perConnection;
+		this.retry = retry;
+	}
+
+	synchronized void start() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						serve(server.accept());
+					} catch (IOException e) {
+						// closed, or the client went away
+					}
+				}
+			}
+		}, "StubEventStream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	synchronized void stop() throws IOException {
+		server.close();
+	}
+
+	String getUrl() {
+		return "http://127.0.0.1:" + server.getLocalPort() + "/v2/stream/recentchange";
+	}
+
+	synchronized List<Attempt> getAttempts() {
+		return new ArrayList<Attempt>(attempts);
+	}
+
+	// the revid of the nth event
+	static long revid(int n) {
+		return BASE_REVID + n;
+	}
+
+	private void serve(Socket socket) throws IOException {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			String lastEventId = null;
+			for (String line; (line = in.readLine()) != null && line.length() > 0;) {
+				if (line.regionMatches(true, 0, "Last-Event-ID:", 0, 14)) {
+					lastEventId = line.substring(line.indexOf(':') + 1).trim();
+				}
+			}
+
+			int from = lastEventId == null ? 0 : Integer.parseInt(lastEventId);
+			boolean refused = from >= total;
+			synchronized (this) {
+				attempts.add(new Attempt(System.currentTimeMillis(), lastEventId, refused));
+			}
+
+			OutputStream out = socket.getOutputStream();
+			if (refused) {
+				out.write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+						.getBytes("UTF-8"));
+				out.flush();
+				return;
+			}
+
+			StringBuilder body = new StringBuilder();
+			body.append("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nConnection: close\r\n\r\n");
+			body.append("retry: ").append(retry).append("\n\n");
+			body.append(": keepalive\n\n");
+
+			int to = Math.min(from + perConnection, total);
+			for (int n = from + 1; n <= to; n++) {
+				body.append("id: ").append(n).append('\n');
+				body.append("data: ").append(event(n)).append("\n\n");
+			}
+			if (to < total) {
+				String next = event(to + 1).toString();
+				body.append("id: ").append(to + 1).append('\n');
+				body.append("data: ").append(next.substring(0, next.length() / 2));
+			}
+			out.write(body.toString().getBytes("UTF-8"));
+			out.flush();
+
+			// a reset rather than an orderly close
+			socket.setSoLinger(true, 0);
+		} catch (JSONException e) {
+			throw new IOException(e.toString());
+		} finally {
+			socket.close();
+		}
+	}
+
+	private JSONObject event(int n) throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("id", n);
+		json.put("type", "edit");
+		json.put("namespace", 0);
+		json.put("server_name", domain);
+		json.put("title", "Article " + n);
+		json.put("user", "192.0.2." + (n % 256));
+		json.put("comment", "");
+		json.put("timestamp", System.currentTimeMillis() / 1000);
+		json.put("revision", new JSONObject().put("old", revid(n) - 1).put("new", revid(n)));
+		json.put("length", new JSONObject().put("old", 100).put("new", 110));
+		return json;
+	}
+}
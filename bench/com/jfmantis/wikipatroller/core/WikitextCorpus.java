@@ -0,0 +1,285 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pairs of revisions to benchmark diffing on
+ *
+ * The built-in pairs are generated from a fixed seed, so they are the same on
+ * every run, and each one mimics a kind of edit that patrollers see a lot of.
+ * Real pairs can be recorded from a wiki with record(), and are loaded from
+ * NAME.old / NAME.new files.
+ */
+class WikitextCorpus {
+
+	static class Pair {
+		final String name, before, after;
+
+		Pair(String name, String before, String after) {
+			this.name = name;
+			this.before = before;
+			this.after = after;
+		}
+	}
+
+	private static final String[] WORDS = { "the", "of", "and", "in", "to", "was", "for", "on", "as", "with",
+			"by", "is", "at", "from", "his", "her", "an", "which", "were", "are", "city", "river", "album",
+			"season", "team", "population", "century", "government", "released", "published", "born", "during",
+			"first", "national", "university", "station", "church", "district", "village", "company", "member" };
+
+	private final Random random;
+
+	WikitextCorpus(long seed) {
+		random = new Random(seed);
+	}
+
+	List<Pair> generate() {
+		List<Pair> pairs = new ArrayList<Pair>();
+		pairs.add(smallVandalism());
+		pairs.add(sectionBlanking());
+		pairs.add(tableEdit());
+		pairs.add(botReformatting());
+		pairs.add(largeArticle());
+		pairs.add(largeArticleScattered());
+		return pairs;
+	}
+
+	// a few words changed and some nonsense added in a mid-sized article
+	Pair smallVandalism() {
+		String before = article(12);
+		StringBuilder after = new StringBuilder(before);
+
+		int pos = after.indexOf(". ", after.length() / 3) + 2;
+		after.insert(pos, "JOHN IS SO COOL LOL!!!! ");
+		pos = after.indexOf(" was ", after.length() / 2);
+		after.replace(pos, pos + 5, " wasnt ");
+
+		return new Pair("smallVandalism", before, after.toString());
+	}
+
+	// a whole section removed from the middle of an article
+	Pair sectionBlanking() {
+		String before = article(20);
+		int start = before.indexOf("\n== ", before.length() / 3);
+		int end = before.indexOf("\n== ", start + 1);
+		String after = before.substring(0, start) + before.substring(end);
+
+		return new Pair("sectionBlanking", before, after);
+	}
+
+	// a column of a big table updated, and a few rows added
+	Pair tableEdit() {
+		StringBuilder before = new StringBuilder(paragraph(6));
+		StringBuilder after = new StringBuilder(before);
+		before.append("\n{| class=\"wikitable sortable\"\n! Rank !! Name !! Country !! Points !! Notes\n");
+		after.append("\n{| class=\"wikitable sortable\"\n! Rank !! Name !! Country !! Points !! Notes\n");
+
+		for (int i = 1; i <= 2500; i++) {
+			String name = "[[" + capitalise(word()) + " " + capitalise(word()) + "]]";
+			String country = "{{flagicon|" + capitalise(word()) + "}}";
+			int points = random.nextInt(10000);
+			String row = "|-\n| " + i + " || " + name + " || " + country + " || ";
+			String notes = " || " + sentence(4) + "\n";
+
+			before.append(row).append(points).append(notes);
+			after.append(row).append(i % 3 == 0 ? points + random.nextInt(50) : points).append(notes);
+			if (i % 500 == 0) {
+				after.append("|-\n| " + i + "a || [[" + capitalise(word()) + "]] || {{flagicon|"
+						+ capitalise(word()) + "}} || 0 || new entry\n");
+			}
+		}
+		before.append("|}\n");
+		after.append("|}\n");
+
+		return new Pair("tableEdit", before.toString(), after.toString());
+	}
+
+	// small formatting changes scattered all over an article
+	Pair botReformatting() {
+		String before = article(20);
+		String after = before.replace("{{cite web |", "{{cite web|").replace(" |accessdate=", "|access-date=")
+				.replace("== References ==", "==References==").replace("  ", " ");
+
+		return new Pair("botReformatting", before, after);
+	}
+
+	// one sentence changed in an article of about a megabyte
+	Pair largeArticle() {
+		StringBuilder before = new StringBuilder();
+		while (before.length() < 1024 * 1024) {
+			before.append(article(20));
+		}
+
+		StringBuilder after = new StringBuilder(before);
+		int pos = after.indexOf(". ", after.length() / 2) + 2;
+		int end = after.indexOf(". ", pos) + 2;
+		after.replace(pos, end, "This sentence was rewritten by the editor. ");
+
+		return new Pair("largeArticle", before.toString(), after.toString());
+	}
+
+	// a sentence changed every 64 KB or so through an article of about a
+	// megabyte, so that no one stretch of it is left unchanged and the diff
+	// has to bisect the whole thing
+	Pair largeArticleScattered() {
+		StringBuilder before = new StringBuilder();
+		while (before.length() < 1024 * 1024) {
+			before.append(article(20));
+		}
+
+		StringBuilder after = new StringBuilder(before);
+		for (int at = 32 * 1024; at < after.length() - 1024; at += 64 * 1024) {
+			int pos = after.indexOf(". ", at) + 2;
+			int end = after.indexOf(". ", pos) + 2;
+			after.replace(pos, end, "This sentence was rewritten by the editor. ");
+		}
+
+		return new Pair("largeArticleScattered", before.toString(), after.toString());
+	}
+
+	// an article of about the given length
+	String article(long length) {
+		StringBuilder text = new StringBuilder(article(1));
+		while (text.length() < length) {
+			text.append("\n== ").append(capitalise(word())).append(" ==\n").append(paragraph(4));
+		}
+		return text.toString();
+	}
+
+	String sentence() {
+		return sentence(8 + random.nextInt(16));
+	}
+
+	private String article(int sections) {
+		StringBuilder text = new StringBuilder();
+		text.append("{{Infobox settlement\n| name = ").append(capitalise(word())).append("\n| population = ")
+				.append(random.nextInt(100000)).append("\n}}\n");
+		text.append("'''").append(capitalise(word())).append("''' ").append(paragraph(5));
+
+		for (int i = 0; i < sections; i++) {
+			text.append("\n== ").append(capitalise(word())).append(" ").append(word()).append(" ==\n");
+			int paragraphs = 1 + random.nextInt(4);
+			for (int j = 0; j < paragraphs; j++) {
+				text.append(paragraph(3 + random.nextInt(6))).append('\n');
+			}
+		}
+
+		text.append("\n== References ==\n{{reflist}}\n\n[[Category:").append(capitalise(word())).append("]]\n");
+		return text.toString();
+	}
+
+	private String paragraph(int sentences) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < sentences; i++) {
+			text.append(sentence(8 + random.nextInt(16)));
+			if (random.nextInt(4) == 0) {
+				text.append("<ref>{{cite web |url=http://example.org/").append(word()).append(" |title=")
+						.append(capitalise(word())).append(" |accessdate=").append(2000 + random.nextInt(20))
+						.append("-01-01}}</ref>");
+			}
+			text.append(random.nextInt(10) == 0 ? "  " : " ");
+		}
+		return text.append('\n').toString();
+	}
+
+	private String sentence(int words) {
+		StringBuilder text = new StringBuilder(capitalise(word()));
+		for (int i = 1; i < words; i++) {
+			text.append(' ');
+			if (random.nextInt(8) == 0) {
+				text.append("[[").append(word()).append("]]");
+			} else {
+				text.append(word());
+			}
+		}
+		return text.append('.').toString();
+	}
+
+	private String word() {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String capitalise(String word) {
+		return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+	}
+
+	// pairs recorded earlier into dir
+	static List<Pair> load(File dir) throws IOException {
+		List<Pair> pairs = new ArrayList<Pair>();
+
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return pairs;
+		}
+		Arrays.sort(files);
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(".old")) {
+				name = name.substring(0, name.length() - 4);
+				File after = new File(dir, name + ".new");
+				if (after.exists()) {
+					pairs.add(new Pair(name, read(file), read(after)));
+				}
+			}
+		}
+
+		return pairs;
+	}
+
+	// downloads a pair of revisions and saves them into dir
+	static void record(Wiki wiki, final long oldrevid, final long revid, File dir, String name)
+			throws IOException {
+		final String[] texts = new String[2];
+		wiki.getRevisions(new long[] { oldrevid, revid }, new Wiki.RevisionHandler() {
+			@Override
+			public void handleRevision(long pageid, long id, String user, String text) {
+				texts[id == oldrevid ? 0 : 1] = text;
+			}
+		});
+
+		if (texts[0] == null || texts[1] == null) {
+			throw new IOException("Couldn't get the text of both revisions");
+		}
+
+		dir.mkdirs();
+		write(new File(dir, name + ".old"), texts[0]);
+		write(new File(dir, name + ".new"), texts[1]);
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int n = 0;
+			while (n < bytes.length) {
+				int read = in.read(bytes, n, bytes.length - n);
+				if (read == -1) {
+					break;
+				}
+				n += read;
+			}
+			return new String(bytes, 0, n, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File file, String text) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.jfmantis.wikipatroller;
+
+import java.util.List;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+
+import com.jfmantis.wikipatroller.core.DiffText;
+import com.jfmantis.wikipatroller.core.WordMatcher;
+
+/**
+ * Turns a DiffText into something a TextView can display, with insertions in
+ * green, deletions in red, and flagged words in bold dark red.
+ *
+ * Only the part being shown is styled: toSpannable() copies and styles just
+ * the window it's given, so a huge diff costs no more to show than its first
+ * screenful or so.
+ */
+class DiffSpans {
+	private static final int INSERTED_COLOR = Color.rgb(220, 255, 220);
+	private static final int DELETED_COLOR = Color.rgb(255, 220, 220);
+	private static final int MATCH_COLOR = Color.rgb(160, 0, 0);
+
+	// the characters from start to end, styled
+	public static SpannableStringBuilder toSpannable(DiffText diff, List<WordMatcher.Match> matches, int start,
+			int end) {
+		SpannableStringBuilder builder = new SpannableStringBuilder(diff.subSequence(start, end));
+
+		for (int i = diff.findSpan(start); i < diff.getSpanCount() && diff.getSpanStart(i) < end; i++) {
+			int color = diff.getSpanKind(i) == DiffText.Kind.INSERTED ? INSERTED_COLOR : DELETED_COLOR;
+			setSpan(builder, new BackgroundColorSpan(color), diff.getSpanStart(i), diff.getSpanEnd(i), start, end);
+		}
+
+		if (matches != null) {
+			for (WordMatcher.Match match : matches) {
+				if (match.end > start && match.start < end) {
+					setSpan(builder, new ForegroundColorSpan(MATCH_COLOR), match.start, match.end, start, end);
+					setSpan(builder, new StyleSpan(Typeface.BOLD), match.start, match.end, start, end);
+				}
+			}
+		}
+
+		return builder;
+	}
+
+	// sets a span given in DiffText offsets, cut to the window
+	private static void setSpan(SpannableStringBuilder builder, Object span, int from, int to, int start, int end) {
+		builder.setSpan(span, Math.max(from, start) - start, Math.min(to, end) - start, 0);
+	}
+}
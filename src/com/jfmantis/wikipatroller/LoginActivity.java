@@ -1,9 +1,17 @@
 package com.jfmantis.wikipatroller;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import android.app.Activity;
 import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
@@ -15,10 +23,15 @@ import android.widget.TextView;
 import android.widget.TextView.OnEditorActionListener;
 import android.widget.Toast;
 
+import com.jfmantis.wikipatroller.core.Wiki;
+
 public class LoginActivity extends Activity {
 	EditText wikiDomain, usernameInput, passwordInput;
 	Button loginButton;
 
+	// how many of the other wikis are logged in to at the same time
+	static final int LOGIN_THREADS = 4;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -80,6 +93,11 @@ public class LoginActivity extends Activity {
 	private class LoginTask extends AsyncTask<String, Void, Wiki.LoginError> {
 		Wiki wiki;
 
+		// the other wikis from the user's settings that were logged in to,
+		// and the domains of those that couldn't be
+		ArrayList<Wiki> others = new ArrayList<Wiki>();
+		List<String> failed = new ArrayList<String>();
+
 		protected void onPreExecute() {
 			// disable all controls while trying to log in
 			wikiDomain.setEnabled(false);
@@ -91,18 +109,73 @@ public class LoginActivity extends Activity {
 		protected Wiki.LoginError doInBackground(String... args) {
 			wiki = new Wiki(args[0]);
 
+			Wiki.LoginError error;
 			try {
-				return wiki.login(args[1], args[2]);
+				error = wiki.login(args[1], args[2]);
 			} catch (Exception e) {
 				return Wiki.LoginError.IOERROR;
 			}
+
+			if (error == null) {
+				loginOthers(args[1], args[2]);
+			}
+			return error;
+		}
+
+		// every wiki needs its own login for rollback to work there, so the
+		// other wikis to patrol are logged in to now, while the password is
+		// at hand
+		private void loginOthers(final String username, final String password) {
+			String list = getSharedPreferences(username, 0).getString("pref_otherWikis", "");
+
+			List<Wiki> tried = new ArrayList<Wiki>();
+			List<Future<Wiki.LoginError>> results = new ArrayList<Future<Wiki.LoginError>>();
+			ExecutorService pool = Executors.newFixedThreadPool(LOGIN_THREADS);
+			for (String domain : list.split(",")) {
+				domain = domain.trim();
+				if (domain.length() == 0 || domain.equals(wiki.getDomain())) {
+					continue;
+				}
+
+				final Wiki other = new Wiki(domain);
+				tried.add(other);
+				results.add(pool.submit(new Callable<Wiki.LoginError>() {
+					@Override
+					public Wiki.LoginError call() throws Exception {
+						return other.login(username, password);
+					}
+				}));
+			}
+
+			for (int i = 0; i < tried.size(); i++) {
+				Wiki.LoginError error;
+				try {
+					error = results.get(i).get();
+				} catch (Exception e) {
+					error = Wiki.LoginError.IOERROR;
+				}
+
+				if (error == null) {
+					others.add(tried.get(i));
+				} else {
+					failed.add(tried.get(i).getDomain());
+				}
+			}
+			pool.shutdown();
 		}
 
 		protected void onPostExecute(Wiki.LoginError error) {
 			if (error == null) {
 				Intent intent = new Intent(getApplicationContext(), PatrolActivity.class);
 				intent.putExtra("Wiki", wiki);
+				intent.putExtra("OtherWikis", others);
 				startActivity(intent);
+
+				if (!failed.isEmpty()) {
+					Toast.makeText(getApplicationContext(),
+							String.format(getString(R.string.otherLoginFailed), TextUtils.join(", ", failed)),
+							Toast.LENGTH_LONG).show();
+				}
 			} else {
 				int stringid;
 
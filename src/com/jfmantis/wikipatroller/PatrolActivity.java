@@ -1,10 +1,14 @@
 package com.jfmantis.wikipatroller;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Set;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 
 import android.app.Activity;
@@ -21,6 +25,7 @@ import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.TextPaint;
 import android.text.method.LinkMovementMethod;
+import android.text.style.ClickableSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StyleSpan;
 import android.text.style.URLSpan;
@@ -33,29 +38,80 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.jfmantis.wikipatroller.core.Change;
+import com.jfmantis.wikipatroller.core.ChangePipeline;
+import com.jfmantis.wikipatroller.core.DiffText;
+import com.jfmantis.wikipatroller.core.MultiWikiSource;
+import com.jfmantis.wikipatroller.core.RecentChangesStream;
+import com.jfmantis.wikipatroller.core.DiffCache;
+import com.jfmantis.wikipatroller.core.RevisionCache;
+import com.jfmantis.wikipatroller.core.Wiki;
+import com.jfmantis.wikipatroller.core.WordMatcher;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+
 public class PatrolActivity extends Activity {
 	TextView titleText, descriptionText, summaryText, diffText;
 	Button nextButton, rvButton, rvVandalButton;
 
 	Wiki wiki;
-	Queue<Change> changeQueue;
-	Set<Long> changesSeen;
+	ChangePipeline pipeline;
+
+	// the wiki logged in to, followed by any others from the settings that
+	// are patrolled along with it; with more than one, they're all polled
+	// through multiWikiSource, except in live mode, which only follows wiki
+	List<Wiki> wikis;
+	MultiWikiSource multiWikiSource;
+
 	Change current;
 
+	// how many changes the pipeline keeps ready or on their way
+	static final int QUEUE_TARGET = 10;
+
+	// how many characters of a diff are styled and shown at first, and how
+	// many more each time "Show more" is tapped
+	static final int DIFF_WINDOW = 10000;
+
+	// how much revision text is kept on disk between sessions
+	static final long REVISION_CACHE_BYTES = 20 * 1024 * 1024;
+
+	// how many finished diffs are kept in memory and on disk; the memory part
+	// is kept for as long as the process is, so that changes fetched again
+	// after the activity is recreated come straight back
+	static final long DIFF_CACHE_MEMORY_BYTES = 4 * 1024 * 1024;
+	static final long DIFF_CACHE_DISK_BYTES = 10 * 1024 * 1024;
+	static DiffCache diffCache;
+
 	// whether the activity has just started (i.e., still says "Loading...")
 	boolean juststarted = true;
 
+	// whether a fetch error has been shown since the last change arrived
+	boolean errorShown = false;
+
 	ScheduledExecutorService threadPool;
 
+	// in live mode, edits arrive here from the stream and wait to be diffed
+	RecentChangesStream stream;
+	BlockingQueue<Change> streamed;
+
+	// how many streamed edits to keep if they arrive faster than they're
+	// reviewed; the oldest are dropped
+	static final int STREAM_BUFFER = 500;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.patrol_layout);
 
 		wiki = (Wiki) getIntent().getSerializableExtra("Wiki");
-
-		changeQueue = new LinkedList<Change>();
-		changesSeen = new HashSet<Long>();
+		wikis = new ArrayList<Wiki>();
+		wikis.add(wiki);
+		@SuppressWarnings("unchecked")
+		List<Wiki> others = (List<Wiki>) getIntent().getSerializableExtra("OtherWikis");
+		if (others != null && !others.isEmpty()) {
+			wikis.addAll(others);
+			multiWikiSource = new MultiWikiSource(wikis);
+		}
 
 		// set up UI
 		summaryText = (TextView) findViewById(R.id.summaryText);
@@ -65,6 +121,7 @@ public class PatrolActivity extends Activity {
 
 		titleText.setMovementMethod(LinkMovementMethod.getInstance());
 		descriptionText.setMovementMethod(LinkMovementMethod.getInstance());
+		diffText.setMovementMethod(LinkMovementMethod.getInstance());
 
 		// the three bottom buttons start out disabled
 		nextButton = (Button) findViewById(R.id.nextButton);
@@ -76,8 +133,34 @@ public class PatrolActivity extends Activity {
 		rvVandalButton = (Button) findViewById(R.id.revertVandalButton);
 		rvVandalButton.setEnabled(false);
 
-		// revert & rc-fetching tasks run from this pool
+		// revert tasks run from this pool
 		threadPool = Executors.newScheduledThreadPool(5);
+
+		// recent changes are fetched and diffed by the pipeline's own threads
+		pipeline = new ChangePipeline(wiki, QUEUE_TARGET, new ChangePipeline.Listener() {
+			@Override
+			public void onChangeReady() {
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						changeReady();
+					}
+				});
+			}
+
+			@Override
+			public void onError(Exception e) {
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (!errorShown) {
+							errorShown = true;
+							Toast.makeText(getApplicationContext(), R.string.rcFetchError, Toast.LENGTH_LONG).show();
+						}
+					}
+				});
+			}
+		});
 	}
 
 	@Override
@@ -87,9 +170,59 @@ public class PatrolActivity extends Activity {
 		PreferenceManager.setDefaultValues(this, wiki.getUser(), 0, R.xml.preferences, false);
 		SharedPreferences prefs = getSharedPreferences(wiki.getUser(), 0);
 		boolean anonsOnly = prefs.getBoolean("pref_anonOnly", true);
-		wiki.setAnonsOnly(anonsOnly);
+		WordMatcher matcher = loadWordMatcher(prefs.getString("pref_badWords", ""));
+		if (wiki.getRevisionCache() == null) {
+			wiki.setRevisionCache(new RevisionCache(new File(getCacheDir(), "revisions"), REVISION_CACHE_BYTES));
+		}
+		if (diffCache == null) {
+			diffCache = new DiffCache(DIFF_CACHE_MEMORY_BYTES, new File(getCacheDir(), "diffs"), DIFF_CACHE_DISK_BYTES);
+		}
+
+		// the caches are keyed by domain, so the wikis can share them
+		for (Wiki w : wikis) {
+			w.setAnonsOnly(anonsOnly);
+			w.setServerDiffs(prefs.getBoolean("pref_serverDiff", false));
+			w.setParallelDiffs(prefs.getBoolean("pref_parallelDiff", false));
+			w.setWordMatcher(matcher);
+			w.setRevisionCache(wiki.getRevisionCache());
+			w.setDiffCache(diffCache);
+		}
+
+		if (prefs.getBoolean("pref_stream", false)) {
+			startStream();
+			pipeline.setSource(ChangePipeline.streamSource(stream, streamed, wiki));
+		} else if (multiWikiSource != null) {
+			pipeline.setSource(multiWikiSource);
+		} else {
+			pipeline.setSource(ChangePipeline.pollingSource(wiki));
+		}
+
+		pipeline.start();
+	}
+
+	// the built-in list plus the user's own words
+	private WordMatcher loadWordMatcher(String extra) {
+		List<String> entries = new ArrayList<String>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(getResources().openRawResource(R.raw.badwords), "UTF-8"));
+			try {
+				for (String line; (line = reader.readLine()) != null;) {
+					entries.add(line);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			Toast.makeText(getApplicationContext(), R.string.badWordsLoadError, Toast.LENGTH_LONG).show();
+		}
 
-		fetchRecentChanges();
+		// a blank preference or a trailing comma leaves empty words
+		for (String word : extra.split(",")) {
+			if (word.trim().length() > 0) {
+				entries.add(word);
+			}
+		}
+		return WordMatcher.compile(entries);
 	}
 
 	@Override
@@ -105,6 +238,21 @@ public class PatrolActivity extends Activity {
 	@Override
 	protected void onStop() {
 		super.onStop();
+
+		if (stream != null) {
+			stream.stop();
+			stream = null;
+		}
+
+		// the diff arrays are as big as the biggest page diffed so far, which
+		// isn't worth keeping while nobody's looking
+		diff_match_patch.diff_trimScratch();
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		pipeline.stop();
 	}
 
 	@Override
@@ -158,19 +306,18 @@ public class PatrolActivity extends Activity {
 	}
 
 	public void nextButtonClicked(View view) {
-		if (changeQueue.size() < 5) {
-			fetchRecentChanges();
-			if (changeQueue.size() == 0) {
-				return;
-			}
+		Change next = pipeline.poll();
+		if (next == null) {
+			nextButton.setEnabled(false);
+			return;
 		}
 
-		current = changeQueue.remove();
+		current = next;
 
-		titleText.setText(makeLinkSpan(current.getTitle(), wiki.makeArticleURL(current.getTitle())));
+		titleText.setText(makeLinkSpan(current.getTitle(), wikiOf(current).makeArticleURL(current.getTitle())));
 
 		SpannableStringBuilder description = new SpannableStringBuilder();
-		description.append(makeLinkSpan(current.getUser(), wiki.makeUserURL(current.getUser())));
+		description.append(makeLinkSpan(current.getUser(), wikiOf(current).makeUserURL(current.getUser())));
 		description.append(" . . ");
 		description.append(current.getTime());
 		description.append(" . . ");
@@ -195,19 +342,80 @@ public class PatrolActivity extends Activity {
 		descriptionText.setText(description);
 
 		summaryText.setText(current.getSummary());
-		diffText.setText(current.getDiff());
+		showDiff(DIFF_WINDOW);
 
-		if (changeQueue.size() == 0) {
+		if (pipeline.readyCount() == 0) {
 			nextButton.setEnabled(false);
 		}
 	}
 
+	// shows the current change's diff up to end, with a link to the rest if
+	// that isn't all of it
+	private void showDiff(int end) {
+		DiffText diff = current.getDiff();
+		if (diff == null) {
+			diffText.setText(null);
+			return;
+		}
+
+		end = Math.min(end, diff.length());
+		SpannableStringBuilder text = DiffSpans.toSpannable(diff, current.getMatches(), 0, end);
+
+		if (end < diff.length()) {
+			final int next = end + DIFF_WINDOW;
+			SpannableString more = new SpannableString(getString(R.string.showMore));
+			more.setSpan(new ClickableSpan() {
+				@Override
+				public void onClick(View view) {
+					showDiff(next);
+				}
+			}, 0, more.length(), 0);
+			text.append("\n\n");
+			text.append(more);
+		}
+
+		diffText.setText(text);
+	}
+
+	// called when the pipeline has another change ready
+	private void changeReady() {
+		errorShown = false;
+		nextButton.setEnabled(true);
+
+		// if the activity has not shown any changes before, then enable
+		// buttons and show the edit
+		if (juststarted) {
+			juststarted = false;
+			rvButton.setEnabled(true);
+			rvVandalButton.setEnabled(true);
+			nextButtonClicked(null);
+		}
+	}
+
 	public void revert(String reason) {
 		new RevertTask().executeOnExecutor(threadPool, current, reason);
 	}
 
-	private void fetchRecentChanges() {
-		new FetchRecentChangesTask().executeOnExecutor(threadPool, 10);
+	private void startStream() {
+		if (streamed == null) {
+			streamed = new LinkedBlockingQueue<Change>(STREAM_BUFFER);
+		}
+
+		stream = new RecentChangesStream(wiki, new RecentChangesStream.Listener() {
+			@Override
+			public void onChange(Change change) {
+				while (!streamed.offer(change)) {
+					streamed.poll();
+				}
+			}
+		});
+		stream.start();
+	}
+
+	// the wiki a change was made on, which a MultiWikiSource can make
+	// different from the one the user logged in to
+	private Wiki wikiOf(Change change) {
+		return change.getWiki() != null ? change.getWiki() : wiki;
 	}
 
 	// first argument is Change object to revert
@@ -222,7 +430,7 @@ public class PatrolActivity extends Activity {
 			pagename = change.getTitle();
 
 			try {
-				return wiki.rollback(change, reason);
+				return wikiOf(change).rollback(change, reason);
 			} catch (Exception e) {
 				return Wiki.RevertError.IOERROR;
 			}
@@ -262,47 +470,6 @@ public class PatrolActivity extends Activity {
 		}
 	}
 
-	private class FetchRecentChangesTask extends AsyncTask<Integer, Void, Change[]> {
-		protected Change[] doInBackground(Integer... args) {
-			try {
-				return wiki.fetchRecentChanges(args[0]);
-			} catch (Exception e) {
-				return null;
-			}
-		}
-
-		protected void onPostExecute(Change[] changes) {
-			if (changes == null) {
-				Toast.makeText(getApplicationContext(), R.string.rcFetchError, Toast.LENGTH_LONG).show();
-				return;
-			}
-
-			// add new edits to the queue
-			for (Change change : changes) {
-				if (!changesSeen.contains(change.getRevid())) {
-					changeQueue.add(change);
-					changesSeen.add(change.getRevid());
-				}
-			}
-
-			if (changeQueue.size() > 0) {
-				nextButton.setEnabled(true);
-			} else {
-				// should probably wait a bit before trying again
-				fetchRecentChanges();
-			}
-
-			// if the activity has not shown any changes before, then enable
-			// buttons and show the edit
-			if (juststarted) {
-				juststarted = false;
-				rvButton.setEnabled(true);
-				rvVandalButton.setEnabled(true);
-				nextButtonClicked(null);
-			}
-		}
-	}
-
 	private void logout() {
 		AlertDialog.Builder builder = new AlertDialog.Builder(this);
 		builder.setMessage(R.string.reallyLogout);
@@ -312,7 +479,9 @@ public class PatrolActivity extends Activity {
 			public void onClick(DialogInterface dialog, int which) {
 				if (wiki != null) {
 					if (wiki.isLoggedIn()) {
-						wiki.logout();
+						for (Wiki w : wikis) {
+							w.logout();
+						}
 						finish();
 					}
 				}
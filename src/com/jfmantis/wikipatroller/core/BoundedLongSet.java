@@ -0,0 +1,164 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs that never grows past a fixed size
+ *
+ * Keeps ids like revids without boxing them, in an open-addressing hash table
+ * whose size is fixed when the set is made. Once the set is full, adding
+ * another id forgets the oldest one; ids can also be forgotten once they're
+ * older than a given age. Nothing is allocated after construction, so the set
+ * takes the same memory however long it's used.
+ *
+ * Not thread-safe.
+ */
+class BoundedLongSet {
+	private static final long EMPTY = 0;
+
+	private final int capacity;
+	private final long maxAge;
+
+	// the hash table; EMPTY marks a free slot, and the id 0 is kept apart
+	private final long[] table;
+	private final int mask;
+	private boolean hasZero = false;
+
+	// ids (and when they were added) in the order they were added, as a ring
+	private final long[] order;
+	private final long[] times;
+	private int head = 0, size = 0;
+
+	/**
+	 * Holds up to capacity ids, each for at most maxAge milliseconds (or
+	 * forever if maxAge is 0).
+	 */
+	BoundedLongSet(int capacity, long maxAge) {
+		if (capacity < 1) {
+			capacity = 1;
+		}
+		this.capacity = capacity;
+		this.maxAge = maxAge;
+
+		// at most half full, so probes stay short
+		int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		table = new long[tableSize];
+		mask = tableSize - 1;
+
+		order = new long[capacity];
+		times = maxAge > 0 ? new long[capacity] : null;
+	}
+
+	BoundedLongSet(int capacity) {
+		this(capacity, 0);
+	}
+
+	public int size() {
+		expire();
+		return size;
+	}
+
+	public boolean contains(long id) {
+		expire();
+		return id == EMPTY ? hasZero : find(id) >= 0;
+	}
+
+	// returns false if the id was already there
+	public boolean add(long id) {
+		if (contains(id)) {
+			return false;
+		}
+
+		if (size == capacity) {
+			removeOldest();
+		}
+
+		if (id == EMPTY) {
+			hasZero = true;
+		} else {
+			int i = slot(id);
+			while (table[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			table[i] = id;
+		}
+
+		int tail = (head + size) % capacity;
+		order[tail] = id;
+		if (times != null) {
+			times[tail] = System.currentTimeMillis();
+		}
+		size++;
+
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(table, EMPTY);
+		hasZero = false;
+		head = 0;
+		size = 0;
+	}
+
+	private void expire() {
+		if (times == null || size == 0) {
+			return;
+		}
+
+		long cutoff = System.currentTimeMillis() - maxAge;
+		while (size > 0 && times[head] < cutoff) {
+			removeOldest();
+		}
+	}
+
+	private void removeOldest() {
+		long id = order[head];
+		head = (head + 1) % capacity;
+		size--;
+
+		if (id == EMPTY) {
+			hasZero = false;
+		} else {
+			delete(find(id));
+		}
+	}
+
+	private int find(long id) {
+		for (int i = slot(id);; i = (i + 1) & mask) {
+			if (table[i] == id) {
+				return i;
+			} else if (table[i] == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	/*
+	 * Empties slot i, then moves back any entries after it that would no
+	 * longer be found past the gap, so that no tombstones are needed.
+	 */
+	private void delete(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (table[j] == EMPTY) {
+				break;
+			}
+
+			// leave it if its home slot is cyclically in (i, j]
+			int home = slot(table[j]);
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+				continue;
+			}
+
+			table[i] = table[j];
+			i = j;
+		}
+		table[i] = EMPTY;
+	}
+
+	private int slot(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
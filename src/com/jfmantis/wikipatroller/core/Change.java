@@ -0,0 +1,201 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Represents one edit
+ * 
+ * Contains all the information returned about an edit by querying the recent
+ * changes list. Also stores the previous user and the diff, which are computed
+ * by the Wiki class in fetchRecentChanges().
+ */
+public class Change {
+	private String user, title, summary, time, prevUser;
+	private long rcid, revid, oldrevid, pageid;
+	private int oldlen, newlen;
+	private boolean hasSummary;
+	private double score;
+
+	// the wiki the change was made on
+	private Wiki wiki;
+
+	private DiffText diff;
+	private List<WordMatcher.Match> matches = Collections.emptyList();
+
+	// only kept between fetching the revisions and diffing them
+	private String oldText, newText;
+
+	public Change(JSONObject json) {
+		try {
+			user = json.getString("user");
+			title = json.getString("title");
+			summary = json.getString("comment");
+			hasSummary = summary.length() > 0;
+			if (summary.length() == 0) {
+				summary = "(no edit summary)";
+			}
+			time = json.getString("timestamp");
+
+			rcid = json.getLong("rcid");
+			revid = json.getLong("revid");
+			oldrevid = json.getLong("old_revid");
+			pageid = json.getLong("pageid");
+
+			oldlen = json.getInt("oldlen");
+			newlen = json.getInt("newlen");
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private Change() {
+	}
+
+	/**
+	 * Makes a Change from a recentchange event from the EventStreams service,
+	 * whose fields are named and nested differently from list=recentchanges.
+	 * The page id isn't part of the event and is left as 0.
+	 */
+	public static Change fromEvent(JSONObject json) throws JSONException {
+		Change change = new Change();
+
+		change.user = json.getString("user");
+		change.title = json.getString("title");
+		change.summary = json.optString("comment", "");
+		change.hasSummary = change.summary.length() > 0;
+		if (change.summary.length() == 0) {
+			change.summary = "(no edit summary)";
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		change.time = format.format(new Date(json.getLong("timestamp") * 1000));
+
+		change.rcid = json.getLong("id");
+		change.revid = json.getJSONObject("revision").getLong("new");
+		change.oldrevid = json.getJSONObject("revision").getLong("old");
+
+		change.oldlen = json.getJSONObject("length").getInt("old");
+		change.newlen = json.getJSONObject("length").getInt("new");
+
+		return change;
+	}
+
+	public void setPrevUser(String s) {
+		prevUser = s;
+	}
+
+	public Wiki getWiki() {
+		return wiki;
+	}
+
+	void setWiki(Wiki wiki) {
+		this.wiki = wiki;
+	}
+
+	public String getPrevUser() {
+		return prevUser;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getSummary() {
+		return summary;
+	}
+
+	// whether the editor left a summary; getSummary() fills in a placeholder
+	// when they didn't
+	public boolean hasSummary() {
+		return hasSummary;
+	}
+
+	public String getTime() {
+		return time.substring(time.length() - 9, time.length() - 1);
+	}
+
+	public long getRcid() {
+		return rcid;
+	}
+
+	// the raw ISO 8601 timestamp, unlike getTime()
+	public String getTimestamp() {
+		return time;
+	}
+
+	public long getRevid() {
+		return revid;
+	}
+
+	public long getOldrevid() {
+		return oldrevid;
+	}
+
+	public long getPageid() {
+		return pageid;
+	}
+
+	public int getOldlen() {
+		return oldlen;
+	}
+
+	public int getNewlen() {
+		return newlen;
+	}
+
+	public int getLenDiff() {
+		return newlen - oldlen;
+	}
+
+	public void setDiff(DiffText diff) {
+		this.diff = diff;
+	}
+
+	public DiffText getDiff() {
+		return diff;
+	}
+
+	// words from the wiki's WordMatcher found in the inserted text
+	public List<WordMatcher.Match> getMatches() {
+		return matches;
+	}
+
+	void setMatches(List<WordMatcher.Match> matches) {
+		this.matches = matches;
+	}
+
+	// set by the ChangePipeline's scorer
+	public double getScore() {
+		return score;
+	}
+
+	void setScore(double score) {
+		this.score = score;
+	}
+
+	void setTexts(String oldText, String newText) {
+		this.oldText = oldText;
+		this.newText = newText;
+	}
+
+	String getOldText() {
+		return oldText;
+	}
+
+	String getNewText() {
+		return newText;
+	}
+}
\ No newline at end of file
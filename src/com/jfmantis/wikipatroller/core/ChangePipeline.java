@@ -0,0 +1,323 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a queue of changes ready for review, fetching more in the background
+ *
+ * Changes go through three stages, each with its own threads: the list of
+ * recent changes is fetched, then each change's content (both revisions, or
+ * the wiki's diff) is downloaded, and then it is diffed. Changes move through
+ * the stages one at a time, so the first change of a batch can be reviewed
+ * while the others are still downloading. Whenever the number of changes that
+ * are ready or on their way drops below the target, another list is fetched.
+ *
+ * Once diffed, each change is given a score by a ChangeScorer, and the
+ * highest-scoring ready change is shown first. So that a harmless change
+ * isn't left waiting forever behind a stream of worse ones, a change gains
+ * AGEING points for every second it waits.
+ */
+public class ChangePipeline {
+
+	/**
+	 * Where the list of changes comes from: polling the wiki, polling several
+	 * wikis (a MultiWikiSource), or edits that have arrived from a
+	 * RecentChangesStream.
+	 */
+	public interface Source {
+		// up to max new changes, without diffs; may return an empty list
+		List<Change> next(int max) throws Exception;
+	}
+
+	public interface Listener {
+		// both are called on one of the pipeline's threads
+
+		void onChangeReady();
+
+		void onError(Exception e);
+	}
+
+	// how many changes to ask for at once
+	private static final int LIST_SIZE = 10;
+
+	// how long to wait before checking again when there was nothing new, or
+	// after an error
+	private static final long POLL_DELAY = 5000;
+
+	// how many times a change's content is fetched before it's given up on,
+	// and how long to wait between tries; the list has already moved past
+	// it, so it wouldn't come round again
+	private static final int CONTENT_ATTEMPTS = 3;
+	private static final long RETRY_DELAY = 2000;
+
+	// how many changes are downloaded and diffed at the same time
+	private static final int CONTENT_THREADS = 3;
+	private static final int DIFF_THREADS = 2;
+
+	private final Wiki wiki;
+	private final Listener listener;
+	private final int target;
+	private volatile Source source;
+
+	private final ScheduledExecutorService listStage = Executors.newSingleThreadScheduledExecutor();
+	private final ExecutorService contentStage = Executors.newFixedThreadPool(CONTENT_THREADS);
+	private final ExecutorService diffStage = Executors.newFixedThreadPool(DIFF_THREADS);
+
+	// points a waiting change gains each second
+	private static final double AGEING = 0.5;
+
+	/*
+	 * A ready change, ordered by its score plus AGEING times how long it has
+	 * waited. Comparing score + AGEING * (now - arrival) for two changes gives
+	 * the same answer at any time, so the order can be fixed on arrival by
+	 * comparing score - AGEING * arrival instead.
+	 */
+	private static class Ready implements Comparable<Ready> {
+		final Change change;
+		final double key;
+
+		Ready(Change change, long arrival) {
+			this.change = change;
+			this.key = change.getScore() - AGEING * arrival / 1000.0;
+		}
+
+		@Override
+		public int compareTo(Ready other) {
+			return Double.compare(other.key, key);
+		}
+	}
+
+	private final BlockingQueue<Ready> ready = new PriorityBlockingQueue<Ready>();
+	private volatile ChangeScorer scorer = new VandalismScorer();
+
+	// arrival times are counted from here, to keep the keys small
+	private final long started = System.currentTimeMillis();
+
+	// changes in the content and diff stages
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// whether a list fetch is running or scheduled
+	private boolean listing = false;
+
+	// how many revids, and for how long, are remembered to keep changes
+	// from going through twice; neither the wiki nor the stream sends a
+	// change again after that
+	private static final int SEEN_CAPACITY = 10000;
+	private static final long SEEN_AGE = 60 * 60 * 1000;
+
+	// revids (with the wiki they're from) that have already gone into the
+	// pipeline
+	private final BoundedLongSet seen = new BoundedLongSet(SEEN_CAPACITY, SEEN_AGE);
+
+	public ChangePipeline(Wiki wiki, int target, Listener listener) {
+		this.wiki = wiki;
+		this.target = target;
+		this.listener = listener;
+		this.source = pollingSource(wiki);
+	}
+
+	public void setSource(Source source) {
+		this.source = source;
+	}
+
+	public void setScorer(ChangeScorer scorer) {
+		this.scorer = scorer;
+	}
+
+	public void start() {
+		refill();
+	}
+
+	public void stop() {
+		listStage.shutdownNow();
+		contentStage.shutdownNow();
+		diffStage.shutdownNow();
+	}
+
+	// the most urgent change to review, or null if none are ready yet
+	public Change poll() {
+		Ready next = ready.poll();
+		refill();
+		return next == null ? null : next.change;
+	}
+
+	public int readyCount() {
+		return ready.size();
+	}
+
+	// fetches another list if there aren't enough changes on their way
+	private synchronized void refill() {
+		if (!listing && ready.size() + inFlight.get() < target) {
+			listing = true;
+			scheduleList(0);
+		}
+	}
+
+	private void scheduleList(long delay) {
+		try {
+			listStage.schedule(new Runnable() {
+				@Override
+				public void run() {
+					list();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	private void list() {
+		List<Change> changes;
+		try {
+			changes = source.next(Math.max(LIST_SIZE, target - ready.size() - inFlight.get()));
+		} catch (Exception e) {
+			listener.onError(e);
+			scheduleList(POLL_DELAY);
+			return;
+		}
+
+		for (Change change : changes) {
+			synchronized (this) {
+				if (!seen.add(seenKey(change))) {
+					continue;
+				}
+			}
+			inFlight.incrementAndGet();
+			submitContent(change, 1);
+		}
+
+		synchronized (this) {
+			if (ready.size() + inFlight.get() < target) {
+				// still not enough; if nothing came back, wait before asking
+				// again instead of hammering the wiki
+				scheduleList(changes.isEmpty() ? POLL_DELAY : 0);
+			} else {
+				listing = false;
+			}
+		}
+	}
+
+	private void submitContent(final Change change, final int attempt) {
+		try {
+			contentStage.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						wikiFor(change).fetchContent(change);
+					} catch (Exception e) {
+						listener.onError(e);
+						if (attempt < CONTENT_ATTEMPTS) {
+							retryContent(change, attempt + 1);
+						} else {
+							inFlight.decrementAndGet();
+							refill();
+						}
+						return;
+					}
+					submitDiff(change);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	// the change stays in flight while it waits
+	private void retryContent(final Change change, final int attempt) {
+		try {
+			listStage.schedule(new Runnable() {
+				@Override
+				public void run() {
+					submitContent(change, attempt);
+				}
+			}, RETRY_DELAY, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	private void submitDiff(final Change change) {
+		try {
+			diffStage.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						wikiFor(change).computeDiff(change);
+						change.setScore(scorer.score(change));
+						ready.add(new Ready(change, System.currentTimeMillis() - started));
+					} catch (RuntimeException e) {
+						inFlight.decrementAndGet();
+						listener.onError(e);
+						refill();
+						return;
+					}
+					inFlight.decrementAndGet();
+					listener.onChangeReady();
+					refill();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	// changes from a MultiWikiSource each belong to their own wiki
+	private Wiki wikiFor(Change change) {
+		Wiki own = change.getWiki();
+		return own != null ? own : wiki;
+	}
+
+	// revids are only unique on one wiki, so the domain goes in the top half;
+	// no wiki has anywhere near 2^32 revisions
+	private long seenKey(Change change) {
+		long domain = wikiFor(change).getDomain().hashCode();
+		return (domain << 32) ^ change.getRevid();
+	}
+
+	public static Source pollingSource(final Wiki wiki) {
+		return new Source() {
+			@Override
+			public List<Change> next(int max) throws Exception {
+				return wiki.fetchRecentChangeList(max);
+			}
+		};
+	}
+
+	/**
+	 * Takes changes from a queue filled by a RecentChangesStream. If a page
+	 * was edited more than once, only the most recent edit is kept. Once the
+	 * stream has given up and the queue is empty, polls the wiki instead.
+	 */
+	public static Source streamSource(final RecentChangesStream stream, final BlockingQueue<Change> streamed,
+			final Wiki wiki) {
+		return new Source() {
+			@Override
+			public List<Change> next(int max) throws Exception {
+				List<Change> batch = new ArrayList<Change>();
+				streamed.drainTo(batch, max);
+				if (batch.isEmpty() && !stream.isRunning()) {
+					return wiki.fetchRecentChangeList(max);
+				}
+
+				Map<String, Change> latest = new LinkedHashMap<String, Change>();
+				for (Change change : batch) {
+					latest.remove(change.getTitle());
+					latest.put(change.getTitle(), change);
+				}
+
+				return new ArrayList<Change>(latest.values());
+			}
+		};
+	}
+}
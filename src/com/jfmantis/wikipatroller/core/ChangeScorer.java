@@ -0,0 +1,11 @@
+package com.jfmantis.wikipatroller.core;
+
+/**
+ * Rates how likely a change is to need reverting, so that the worst changes
+ * can be shown first. Called once for each change, after it has been diffed,
+ * on one of the pipeline's threads; it should be quick and must not block.
+ */
+public interface ChangeScorer {
+	// higher means more urgent; there's no fixed scale
+	double score(Change change);
+}
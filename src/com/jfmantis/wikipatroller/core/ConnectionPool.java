@@ -0,0 +1,332 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Keeps HTTP connections alive between requests
+ *
+ * HttpURLConnection already keeps idle keep-alive connections around for each
+ * host, but only if every response body is read to the end and closed, and how
+ * many it keeps can only be changed through a system property. This class
+ * sets that property, hands out connections that share one SSLContext (so that
+ * new TLS connections can resume an existing session instead of doing a full
+ * handshake), and counts how many requests actually had to open a new socket.
+ *
+ * HttpURLConnection has no setting for how long an idle connection is kept,
+ * so this class does that itself. Callers tell it when they're done with a
+ * connection, through finished(), and once a host has had nothing in flight
+ * for the idle timeout, the sockets to it are closed. The platform sees that
+ * they're closed and opens new ones, instead of sending a request down one
+ * that the server or a NAT box dropped long ago. This is checked whenever a
+ * connection is opened, which is when a stale one would do harm.
+ *
+ * The sockets are counted and tracked by the SSLSocketFactory, which is only
+ * used for HTTPS. So the hit and miss counts, and idle eviction, only cover
+ * HTTPS requests. Plain HTTP requests are counted in getRequests() but
+ * nowhere else.
+ */
+class ConnectionPool {
+	// default number of idle connections kept per host
+	private static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+	// default time a host's connections are kept with nothing sent over
+	// them, in milliseconds
+	private static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+
+	// how long TLS sessions stay resumable, in seconds
+	private static final int SESSION_TIMEOUT = 60 * 60;
+
+	private static int maxConnections;
+	private static long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	// connections handed out by open() that haven't been finished, and the
+	// host each one is to. Weak, so that a connection that's dropped without
+	// being finished doesn't keep its host busy for good; all three maps are
+	// guarded by ConnectionPool.class
+	private static final Map<HttpURLConnection, String> inUse = new WeakHashMap<HttpURLConnection, String>();
+
+	// when each host last had a connection opened or finished
+	private static final Map<String, Long> lastUsed = new HashMap<String, Long>();
+
+	// the sockets opened to each host, some of them possibly closed since
+	private static final Map<String, List<Socket>> sockets = new HashMap<String, List<Socket>>();
+
+	private static SSLSocketFactory socketFactory;
+
+	// requests made, how many of them were over HTTPS, and how many of those
+	// needed a new socket or handshake
+	private static final AtomicLong requests = new AtomicLong();
+	private static final AtomicLong httpsRequests = new AtomicLong();
+	private static final AtomicLong socketsOpened = new AtomicLong();
+	private static final AtomicLong fullHandshakes = new AtomicLong();
+
+	static {
+		configure(DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Sets the number of idle connections kept per host, or turns keep-alive
+	 * off if it's 0. HttpURLConnection reads these properties once, when its
+	 * keep-alive cache is first used, so this only has an effect before the
+	 * first request is made.
+	 */
+	public static synchronized void configure(int max) {
+		maxConnections = max;
+
+		System.setProperty("http.keepAlive", max > 0 ? "true" : "false");
+		System.setProperty("http.maxConnections", Integer.toString(max));
+	}
+
+	public static int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets how long a host's connections are kept once nothing has been sent
+	 * over them, in milliseconds. Unlike configure(), this can be changed at
+	 * any time.
+	 */
+	public static synchronized void setIdleTimeout(long timeout) {
+		idleTimeout = timeout;
+	}
+
+	public static synchronized long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Makes HTTPS connections use the given context instead of one with the
+	 * system's trusted certificates, such as one that trusts a test server's
+	 * own certificate.
+	 */
+	static synchronized void setSSLContext(SSLContext context) {
+		socketFactory = new CountingSocketFactory(context.getSocketFactory());
+	}
+
+	public static HttpURLConnection open(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(getSocketFactory());
+			httpsRequests.incrementAndGet();
+		}
+		requests.incrementAndGet();
+
+		String host = connection.getURL().getHost();
+		synchronized (ConnectionPool.class) {
+			long now = System.currentTimeMillis();
+			evictIdle(now);
+			inUse.put(connection, host);
+			lastUsed.put(host, now);
+		}
+		return connection;
+	}
+
+	/**
+	 * Marks a connection from open() as done with, once its response has been
+	 * read or given up on, so that its host can be counted as idle. Doing it
+	 * twice is harmless.
+	 */
+	public static synchronized void finished(HttpURLConnection connection) {
+		String host = inUse.remove(connection);
+		if (host != null) {
+			lastUsed.put(host, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Reads whatever is left of a response so that the connection goes back
+	 * into the pool instead of being thrown away. Used for error responses,
+	 * whose body would otherwise never be read.
+	 */
+	public static void release(HttpURLConnection connection) {
+		InputStream in = connection.getErrorStream();
+		if (in == null) {
+			return;
+		}
+
+		try {
+			byte[] buf = new byte[4096];
+			while (in.read(buf) != -1) {
+			}
+			in.close();
+		} catch (IOException e) {
+			// the connection can't be reused anyway
+		}
+	}
+
+	public static long getRequests() {
+		return requests.get();
+	}
+
+	// HTTPS requests that went over a connection that was already open
+	public static long getHits() {
+		return httpsRequests.get() - socketsOpened.get();
+	}
+
+	// HTTPS requests that had to open a new socket
+	public static long getMisses() {
+		return socketsOpened.get();
+	}
+
+	// new sockets whose TLS session could not be resumed
+	public static long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+	public static void resetCounters() {
+		requests.set(0);
+		httpsRequests.set(0);
+		socketsOpened.set(0);
+		fullHandshakes.set(0);
+	}
+
+	// closes the sockets to every host that has been idle for too long;
+	// called holding the lock
+	private static void evictIdle(long now) {
+		Iterator<Map.Entry<String, Long>> it = lastUsed.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			String host = entry.getKey();
+			if (now - entry.getValue() < idleTimeout || inUse.containsValue(host)) {
+				continue;
+			}
+
+			List<Socket> list = sockets.remove(host);
+			for (int i = 0; list != null && i < list.size(); i++) {
+				try {
+					list.get(i).close();
+				} catch (IOException e) {
+					// it's being thrown away anyway
+				}
+			}
+			it.remove();
+		}
+	}
+
+	// remembers a socket opened to host, so that it can be closed when idle
+	private static synchronized void track(String host, Socket socket) {
+		List<Socket> list = sockets.get(host);
+		if (list == null) {
+			list = new ArrayList<Socket>();
+			sockets.put(host, list);
+		}
+		for (Iterator<Socket> it = list.iterator(); it.hasNext();) {
+			if (it.next().isClosed()) {
+				it.remove();
+			}
+		}
+		list.add(socket);
+	}
+
+	private static synchronized SSLSocketFactory getSocketFactory() throws IOException {
+		if (socketFactory == null) {
+			try {
+				SSLContext context = SSLContext.getInstance("TLS");
+				context.init(null, null, null);
+
+				SSLSessionContext sessions = context.getClientSessionContext();
+				if (sessions != null) {
+					sessions.setSessionTimeout(SESSION_TIMEOUT);
+				}
+
+				socketFactory = new CountingSocketFactory(context.getSocketFactory());
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Unable to set up TLS: " + e.getMessage());
+			}
+		}
+		return socketFactory;
+	}
+
+	/**
+	 * Passes everything through to the real factory, but counts the sockets it
+	 * creates and whether their handshakes resumed an earlier session.
+	 */
+	private static class CountingSocketFactory extends SSLSocketFactory {
+		private final SSLSocketFactory factory;
+
+		// sessions that have already been through a full handshake
+		private final Map<SSLSession, Boolean> sessions = Collections
+				.synchronizedMap(new WeakHashMap<SSLSession, Boolean>());
+
+		private final HandshakeCompletedListener listener = new HandshakeCompletedListener() {
+			@Override
+			public void handshakeCompleted(HandshakeCompletedEvent event) {
+				if (sessions.put(event.getSession(), Boolean.TRUE) == null) {
+					fullHandshakes.incrementAndGet();
+				}
+			}
+		};
+
+		CountingSocketFactory(SSLSocketFactory factory) {
+			this.factory = factory;
+		}
+
+		private Socket count(String host, Socket socket) {
+			socketsOpened.incrementAndGet();
+			if (socket instanceof SSLSocket) {
+				((SSLSocket) socket).addHandshakeCompletedListener(listener);
+			}
+			track(host, socket);
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			return count(host, factory.createSocket(s, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return count(host, factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return count(host, factory.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return count(host.getHostName(), factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+				throws IOException {
+			return count(address.getHostName(), factory.createSocket(address, port, localAddress, localPort));
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps finished diffs, so that a change seen again doesn't have to be
+ * downloaded and diffed again
+ *
+ * A diff between two revisions never changes, so it's kept under the wiki and
+ * the two revids. The same change comes round again when the activity is
+ * recreated, when a change is skipped and the list is fetched again, or when
+ * the same pair is patrolled on two Wikis, and Wiki looks here before
+ * fetching anything.
+ *
+ * The DiffTexts themselves are kept in memory, up to a number of bytes, the
+ * least recently used going first. Given a directory, each diff is also
+ * written there as a gzipped file, so that it survives the process; a diff
+ * that's no longer in memory is read back from there. The files are kept in
+ * a DiskStore, like RevisionCache's.
+ */
+public class DiffCache {
+
+	public static class Entry {
+		public final DiffText diff;
+		public final String prevUser;
+
+		Entry(DiffText diff, String prevUser) {
+			this.diff = diff;
+			this.prevUser = prevUser;
+		}
+
+		// roughly how much memory it takes up
+		int size() {
+			return 64 + diff.length() * 2 + diff.getSpanCount() * 12 + (prevUser == null ? 0 : prevUser.length() * 2);
+		}
+	}
+
+	// bumped if the file format changes; files in another format are ignored
+	private static final int VERSION = 1;
+
+	private static final DiskStore.Format<Entry> FORMAT = new DiskStore.Format<Entry>() {
+		@Override
+		public void write(DataOutputStream out, Entry entry) throws IOException {
+			DiffText diff = entry.diff;
+			byte[] bytes = diff.toString().getBytes("UTF-8");
+			out.writeBoolean(entry.prevUser != null);
+			if (entry.prevUser != null) {
+				out.writeUTF(entry.prevUser);
+			}
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeInt(diff.getSpanCount());
+			for (int i = 0; i < diff.getSpanCount(); i++) {
+				out.writeInt(diff.getSpanStart(i));
+				out.writeInt(diff.getSpanEnd(i));
+				out.writeInt(diff.getSpanKind(i).ordinal());
+			}
+		}
+
+		@Override
+		public Entry read(DataInputStream in) throws IOException {
+			String prevUser = in.readBoolean() ? in.readUTF() : null;
+			byte[] text = new byte[in.readInt()];
+			in.readFully(text);
+			int spanCount = in.readInt();
+			int[] spans = new int[spanCount * 3];
+			for (int i = 0; i < spans.length; i++) {
+				spans[i] = in.readInt();
+			}
+			return new Entry(new DiffText(new String(text, "UTF-8"), spans, spanCount), prevUser);
+		}
+	};
+
+	private final long maxMemoryBytes;
+
+	// key to entry, least recently used first; guarded by this
+	private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long memoryBytes = 0;
+
+	// null if diffs are only kept in memory
+	private final DiskStore<Entry> store;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// keeps diffs in memory only
+	public DiffCache(long maxMemoryBytes) {
+		this(maxMemoryBytes, null, 0);
+	}
+
+	/**
+	 * Also writes diffs to dir, creating it if needed, and picks up whatever
+	 * an earlier session left there. Nothing is read from disk until the
+	 * cache is first used, so it can be created on the UI thread.
+	 */
+	public DiffCache(long maxMemoryBytes, File dir, long maxDiskBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.store = dir == null ? null : new DiskStore<Entry>(dir, maxDiskBytes, VERSION, FORMAT);
+	}
+
+	// the diff between two revisions, or null if it isn't cached
+	public Entry get(String domain, long oldrevid, long revid) {
+		String key = key(domain, oldrevid, revid);
+		synchronized (this) {
+			Entry entry = memory.get(key);
+			if (entry != null) {
+				hits.incrementAndGet();
+				return entry;
+			}
+		}
+
+		Entry entry = store == null ? null : store.read(key);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		diskHits.incrementAndGet();
+		synchronized (this) {
+			remember(key, entry);
+		}
+		return entry;
+	}
+
+	// saves a diff, unless it's already there
+	public void put(String domain, long oldrevid, long revid, DiffText diff, String prevUser) {
+		String key = key(domain, oldrevid, revid);
+		Entry entry = new Entry(diff, prevUser);
+		synchronized (this) {
+			if (memory.containsKey(key)) {
+				return;
+			}
+			remember(key, entry);
+		}
+		if (store != null && !store.contains(key)) {
+			store.write(key, entry);
+		}
+	}
+
+	public synchronized long memorySize() {
+		return memoryBytes;
+	}
+
+	public long diskSize() {
+		return store == null ? 0 : store.size();
+	}
+
+	public synchronized int count() {
+		return memory.size();
+	}
+
+	// found in memory
+	public long getHits() {
+		return hits.get();
+	}
+
+	// found on disk, having been dropped from memory or left by an earlier
+	// session
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	// the fraction of lookups that were found in memory or on disk
+	public double getHitRate() {
+		long found = hits.get() + diskHits.get();
+		long total = found + misses.get();
+		return total == 0 ? 0 : (double) found / total;
+	}
+
+	public synchronized void clear() {
+		memory.clear();
+		memoryBytes = 0;
+		if (store != null) {
+			store.clear();
+		}
+	}
+
+	private void remember(String key, Entry entry) {
+		Entry old = memory.put(key, entry);
+		if (old != null) {
+			memoryBytes -= old.size();
+		}
+		memoryBytes += entry.size();
+
+		// drops the least recently used until it fits; they're still on disk
+		Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+		while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+			memoryBytes -= it.next().getValue().size();
+			it.remove();
+		}
+	}
+
+	private static String key(String domain, long oldrevid, long revid) {
+		return domain + "-" + oldrevid + "-" + revid;
+	}
+}
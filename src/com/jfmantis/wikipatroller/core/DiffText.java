@@ -0,0 +1,144 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A diff ready to be displayed
+ *
+ * The text of the diff, with long unchanged stretches cut short, plus the
+ * ranges of it that were inserted or deleted. It doesn't say how those ranges
+ * should look, so that it can be shown by something other than Android (see
+ * DiffSpans for the Android version).
+ *
+ * Changes can wait in the queue for a while before they're shown, if they're
+ * shown at all, so this is kept small: the ranges are packed into one int
+ * array instead of an object each, and nothing is styled until a part of it
+ * is actually displayed.
+ */
+public class DiffText implements CharSequence {
+
+	public enum Kind {
+		INSERTED, DELETED
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+
+	public static class Span {
+		public final Kind kind;
+		public final int start, end;
+
+		Span(Kind kind, int start, int end) {
+			this.kind = kind;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private final String text;
+
+	// start, end and kind of each range, in order
+	private final int[] spans;
+	private final int spanCount;
+
+	DiffText(String text, int[] spans, int spanCount) {
+		this.text = text;
+		this.spans = spans;
+		this.spanCount = spanCount;
+	}
+
+	public int getSpanCount() {
+		return spanCount;
+	}
+
+	public int getSpanStart(int i) {
+		return spans[i * 3];
+	}
+
+	public int getSpanEnd(int i) {
+		return spans[i * 3 + 1];
+	}
+
+	public Kind getSpanKind(int i) {
+		return KINDS[spans[i * 3 + 2]];
+	}
+
+	// the first range that ends after offset, or getSpanCount() if none do
+	public int findSpan(int offset) {
+		int low = 0, high = spanCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getSpanEnd(mid) <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// the inserted and deleted ranges, in order; makes an object for each, so
+	// the other methods are better for going through them often
+	public List<Span> getSpans() {
+		List<Span> list = new ArrayList<Span>(spanCount);
+		for (int i = 0; i < spanCount; i++) {
+			list.add(new Span(getSpanKind(i), getSpanStart(i), getSpanEnd(i)));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	@Override
+	public int length() {
+		return text.length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return text.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return text.subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	static class Builder {
+		private final StringBuilder text = new StringBuilder();
+		private int[] spans = new int[3 * 8];
+		private int spanCount = 0;
+
+		Builder append(String s) {
+			text.append(s);
+			return this;
+		}
+
+		Builder append(String s, Kind kind) {
+			if (s.length() == 0) {
+				return this;
+			}
+
+			int start = text.length();
+			text.append(s);
+
+			if (spanCount * 3 == spans.length) {
+				spans = Arrays.copyOf(spans, spans.length * 2);
+			}
+			spans[spanCount * 3] = start;
+			spans[spanCount * 3 + 1] = text.length();
+			spans[spanCount * 3 + 2] = kind.ordinal();
+			spanCount++;
+			return this;
+		}
+
+		DiffText build() {
+			return new DiffText(text.toString(), Arrays.copyOf(spans, spanCount * 3), spanCount);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A directory of gzipped files, one per key, trimmed to a size limit by
+ * deleting the least recently used
+ *
+ * The caches keep their entries on disk in one of these, and only say how an
+ * entry is written and read back. The file times record when each was last
+ * used, so the order survives a restart. Every file starts with a version
+ * number, and a file with another one is treated as missing.
+ *
+ * The directory isn't looked at until the store is first used, which is on
+ * one of Wiki's threads, so that creating one on the UI thread stays cheap.
+ */
+class DiskStore<T> {
+
+	interface Format<T> {
+		void write(DataOutputStream out, T value) throws IOException;
+
+		T read(DataInputStream in) throws IOException;
+	}
+
+	private static final String SUFFIX = ".gz";
+
+	private final File dir;
+	private final long maxBytes;
+	private final int version;
+	private final Format<T> format;
+
+	// file name to size, least recently used first; guarded by this
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long totalBytes = 0;
+
+	// whether the directory has been read into index yet; guarded by this
+	private boolean loaded = false;
+
+	/**
+	 * Uses dir for the files, creating it on first use and picking up
+	 * whatever an earlier session left there. version should be bumped
+	 * whenever format changes.
+	 */
+	DiskStore(File dir, long maxBytes, int version, Format<T> format) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.version = version;
+		this.format = format;
+	}
+
+	// reads the directory the first time it's needed; called holding the lock
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		dir.mkdirs();
+
+		File[] files = dir.listFiles();
+		if (files == null) {
+			files = new File[0];
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long x = a.lastModified(), y = b.lastModified();
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+
+		for (File file : files) {
+			if (file.getName().endsWith(SUFFIX)) {
+				index.put(file.getName(), file.length());
+				totalBytes += file.length();
+			} else {
+				// left over from a write that didn't finish
+				file.delete();
+			}
+		}
+		trim();
+	}
+
+	synchronized boolean contains(String key) {
+		load();
+		return index.containsKey(key + SUFFIX);
+	}
+
+	// the value saved under key, or null if there isn't one
+	T read(String key) {
+		String name = key + SUFFIX;
+		synchronized (this) {
+			load();
+			// also moves it to the end of the order
+			if (index.get(name) == null) {
+				return null;
+			}
+		}
+
+		File file = new File(dir, name);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+					new FileInputStream(file))));
+			try {
+				if (in.readInt() != version) {
+					throw new IOException("Unknown format");
+				}
+				T value = format.read(in);
+				file.setLastModified(System.currentTimeMillis());
+				return value;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// deleted behind our back, or damaged; forget it
+			remove(name);
+			return null;
+		}
+	}
+
+	// saves value under key, replacing what was there
+	void write(String key, T value) {
+		String name = key + SUFFIX;
+		synchronized (this) {
+			load();
+		}
+
+		// written under another name and then renamed, so that a reader never
+		// sees half a file
+		File file = new File(dir, name);
+		File temp = new File(dir, name + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+					new FileOutputStream(temp))));
+			try {
+				out.writeInt(version);
+				format.write(out, value);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("Couldn't rename " + temp);
+			}
+		} catch (IOException e) {
+			// the store only backs up a cache, so carry on without it
+			temp.delete();
+			return;
+		}
+
+		synchronized (this) {
+			Long old = index.put(name, file.length());
+			if (old != null) {
+				totalBytes -= old;
+			}
+			totalBytes += file.length();
+			trim();
+		}
+	}
+
+	synchronized long size() {
+		load();
+		return totalBytes;
+	}
+
+	synchronized int count() {
+		load();
+		return index.size();
+	}
+
+	synchronized void clear() {
+		load();
+		for (String name : index.keySet()) {
+			new File(dir, name).delete();
+		}
+		index.clear();
+		totalBytes = 0;
+	}
+
+	private synchronized void remove(String name) {
+		Long size = index.remove(name);
+		if (size != null) {
+			totalBytes -= size;
+		}
+		new File(dir, name).delete();
+	}
+
+	// deletes the least recently used files until they fit
+	private void trim() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			totalBytes -= eldest.getValue();
+			new File(dir, eldest.getKey()).delete();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON one token at a time, without building the whole document in
+ * memory
+ *
+ * Works like android.util.JsonReader (and has the same methods, for the parts
+ * that are used here), but doesn't need Android, so the core can run on a
+ * plain JVM.
+ */
+class JsonStreamReader implements Closeable {
+
+	enum Token {
+		BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	// what's around the reader's position, and what has been read there so far
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int pos = 0, limit = 0;
+
+	private int[] stack = new int[32];
+	private int depth = 1;
+
+	// the next token, if peek() has already found it; the reader is then
+	// positioned at its first character
+	private Token peeked;
+
+	JsonStreamReader(Reader in) {
+		this.in = in;
+		stack[0] = EMPTY_DOCUMENT;
+	}
+
+	public Token peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+
+		int scope = stack[depth - 1];
+		int c;
+
+		if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY) {
+			c = nextNonWhitespace();
+			if (scope == NONEMPTY_ARRAY) {
+				if (c == ',') {
+					pos++;
+					c = nextNonWhitespace();
+				} else if (c != ']') {
+					throw syntaxError("Expected ',' or ']'");
+				}
+			}
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			}
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			return peeked = peekValue(c);
+		} else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+			c = nextNonWhitespace();
+			if (scope == NONEMPTY_OBJECT) {
+				if (c == ',') {
+					pos++;
+					c = nextNonWhitespace();
+				} else if (c != '}') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+			}
+			if (c == '}') {
+				return peeked = Token.END_OBJECT;
+			}
+			if (c != '"') {
+				throw syntaxError("Expected name");
+			}
+			return peeked = Token.NAME;
+		} else if (scope == DANGLING_NAME) {
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			pos++;
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			return peeked = peekValue(nextNonWhitespace());
+		} else if (scope == EMPTY_DOCUMENT) {
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			return peeked = peekValue(nextNonWhitespace());
+		} else {
+			if (nextNonWhitespace() != -1) {
+				throw syntaxError("Expected end of document");
+			}
+			return peeked = Token.END_DOCUMENT;
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		pos++;
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		pos++;
+		depth--;
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		pos++;
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		pos++;
+		depth--;
+	}
+
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		pos++;
+		String name = readString();
+		stack[depth - 1] = DANGLING_NAME;
+		return name;
+	}
+
+	// numbers are returned as they were written
+	public String nextString() throws IOException {
+		Token token = peek();
+		if (token == Token.STRING) {
+			peeked = null;
+			pos++;
+			return readString();
+		} else if (token == Token.NUMBER) {
+			peeked = null;
+			return readLiteral();
+		}
+		throw new IllegalStateException("Expected a string but was " + token);
+	}
+
+	// strings that hold a number are accepted too
+	public long nextLong() throws IOException {
+		Token token = peek();
+		if (token != Token.NUMBER && token != Token.STRING) {
+			throw new IllegalStateException("Expected a number but was " + token);
+		}
+
+		String value = nextString();
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			double d = Double.parseDouble(value);
+			if ((long) d != d) {
+				throw new NumberFormatException(value);
+			}
+			return (long) d;
+		}
+	}
+
+	public int nextInt() throws IOException {
+		long value = nextLong();
+		if ((int) value != value) {
+			throw new NumberFormatException(Long.toString(value));
+		}
+		return (int) value;
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		String value = readLiteral();
+		if (value.equals("true")) {
+			return true;
+		} else if (value.equals("false")) {
+			return false;
+		}
+		throw syntaxError("Unexpected value " + value);
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+		String value = readLiteral();
+		if (!value.equals("null")) {
+			throw syntaxError("Unexpected value " + value);
+		}
+	}
+
+	// skips the next value, including everything inside it
+	public void skipValue() throws IOException {
+		int count = 0;
+		do {
+			Token token = peek();
+			if (token == Token.BEGIN_ARRAY) {
+				beginArray();
+				count++;
+			} else if (token == Token.BEGIN_OBJECT) {
+				beginObject();
+				count++;
+			} else if (token == Token.END_ARRAY) {
+				endArray();
+				count--;
+			} else if (token == Token.END_OBJECT) {
+				endObject();
+				count--;
+			} else if (token == Token.NAME) {
+				nextName();
+			} else if (token == Token.STRING) {
+				nextString();
+			} else if (token == Token.END_DOCUMENT) {
+				throw new EOFException("End of input");
+			} else {
+				peeked = null;
+				readLiteral();
+			}
+		} while (count > 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		peeked = null;
+		depth = 0;
+		in.close();
+	}
+
+	private void expect(Token token) throws IOException {
+		Token next = peek();
+		if (next != token) {
+			throw new IllegalStateException("Expected " + token + " but was " + next);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (depth == stack.length) {
+			int[] bigger = new int[depth * 2];
+			System.arraycopy(stack, 0, bigger, 0, depth);
+			stack = bigger;
+		}
+		stack[depth++] = scope;
+	}
+
+	private Token peekValue(int c) throws IOException {
+		switch (c) {
+		case -1:
+			throw new EOFException("End of input");
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '"':
+			return Token.STRING;
+		case 't':
+		case 'f':
+			return Token.BOOLEAN;
+		case 'n':
+			return Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return Token.NUMBER;
+			}
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (pos < limit) {
+			return true;
+		}
+		pos = 0;
+		limit = Math.max(in.read(buffer, 0, buffer.length), 0);
+		return limit > 0;
+	}
+
+	// the next character that isn't whitespace, without consuming it, or -1
+	private int nextNonWhitespace() throws IOException {
+		while (fill()) {
+			char c = buffer[pos];
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				pos++;
+			} else {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	// reads up to and past the closing quote; the opening one has been read
+	private String readString() throws IOException {
+		StringBuilder builder = null;
+
+		while (true) {
+			if (!fill()) {
+				throw new EOFException("Unterminated string");
+			}
+
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos];
+				if (c == '"') {
+					String s;
+					if (builder == null) {
+						s = new String(buffer, start, pos - start);
+					} else {
+						builder.append(buffer, start, pos - start);
+						s = builder.toString();
+					}
+					pos++;
+					return s;
+				} else if (c == '\\') {
+					if (builder == null) {
+						builder = new StringBuilder();
+					}
+					builder.append(buffer, start, pos - start);
+					pos++;
+					builder.append(readEscape());
+					start = pos;
+				} else {
+					pos++;
+				}
+			}
+
+			if (builder == null) {
+				builder = new StringBuilder();
+			}
+			builder.append(buffer, start, pos - start);
+		}
+	}
+
+	private char readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(read(), 16);
+				if (digit == -1) {
+					throw syntaxError("Bad \\u escape");
+				}
+				value = (value << 4) + digit;
+			}
+			return (char) value;
+		case -1:
+			throw new EOFException("Unterminated escape");
+		default:
+			// \" \\ and \/ stand for themselves
+			return (char) c;
+		}
+	}
+
+	private int read() throws IOException {
+		return fill() ? buffer[pos++] : -1;
+	}
+
+	// a number, true, false or null
+	private String readLiteral() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		while (fill()) {
+			char c = buffer[pos];
+			if (c == ',' || c == ':' || c == ']' || c == '}' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				break;
+			}
+			builder.append(c);
+			pos++;
+		}
+		if (builder.length() == 0) {
+			throw new EOFException("End of input");
+		}
+		return builder.toString();
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " in JSON");
+	}
+}
@@ -0,0 +1,245 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Polls the recent changes of several wikis and merges them into one list, so
+ * that one ChangePipeline can patrol all of them
+ *
+ * Each wiki is polled about as often as it takes to collect CHANGES_PER_POLL
+ * edits, going by its recent edit rate: a busy wiki is asked every few
+ * seconds, and a quiet one every few minutes. A wiki that had more waiting
+ * than it was asked for is polled again straight away. The wikis that are due are
+ * polled at the same time on the threads Wiki already uses for fetching
+ * revisions, and each is given a share of the changes asked for in proportion
+ * to its edit rate. Every wiki keeps its own Session and RequestScheduler, so
+ * logins and rate limits stay separate, but they share threads and
+ * connections. Each wiki has to be logged in to separately for rollback to
+ * work on it; LoginActivity does that for the wikis in the user's settings.
+ */
+public class MultiWikiSource implements ChangePipeline.Source {
+
+	// how long to wait between polls of one wiki, at least and at most
+	private static final long MIN_INTERVAL = 5000;
+	private static final long MAX_INTERVAL = 5 * 60 * 1000;
+
+	// how many new changes a poll should find, roughly
+	private static final int CHANGES_PER_POLL = 10;
+
+	// the fewest changes asked of a wiki that's due
+	private static final int MIN_SHARE = 5;
+
+	// how much each poll moves the estimated edit rate
+	private static final double SMOOTHING = 0.3;
+
+	private static class Polled {
+		final Wiki wiki;
+
+		// edits per second; until there's been a poll to go on, assume the
+		// wiki is busy so that it's polled soon
+		double rate = CHANGES_PER_POLL * 1000.0 / MIN_INTERVAL;
+
+		long lastPoll = 0, nextPoll = 0;
+
+		// the newest edit seen, by the wiki's clock, or -1
+		long lastTimestamp = -1;
+
+		// polls that failed in a row
+		int failures = 0;
+
+		Polled(Wiki wiki) {
+			this.wiki = wiki;
+		}
+	}
+
+	private final List<Polled> wikis = new ArrayList<Polled>();
+
+	// guarded by this
+	private final SimpleDateFormat timestampFormat;
+
+	public MultiWikiSource() {
+		timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	public MultiWikiSource(List<Wiki> wikis) {
+		this();
+		for (Wiki wiki : wikis) {
+			add(wiki);
+		}
+	}
+
+	public synchronized void add(Wiki wiki) {
+		wikis.add(new Polled(wiki));
+	}
+
+	public synchronized void remove(Wiki wiki) {
+		for (int i = 0; i < wikis.size(); i++) {
+			if (wikis.get(i).wiki == wiki) {
+				wikis.remove(i);
+				return;
+			}
+		}
+	}
+
+	public synchronized List<Wiki> getWikis() {
+		List<Wiki> list = new ArrayList<Wiki>();
+		for (Polled polled : wikis) {
+			list.add(polled.wiki);
+		}
+		return list;
+	}
+
+	// the estimated edits per second on a wiki, or 0 if it isn't polled
+	public synchronized double getEditRate(Wiki wiki) {
+		for (Polled polled : wikis) {
+			if (polled.wiki == wiki) {
+				return polled.rate;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Polls the wikis that are due, returning about max changes between them.
+	 * Only throws if every wiki that was polled failed; a wiki that fails is
+	 * left alone for longer each time.
+	 */
+	@Override
+	public List<Change> next(int max) throws Exception {
+		long now = System.currentTimeMillis();
+
+		List<Polled> due = new ArrayList<Polled>();
+		double totalRate = 0;
+		synchronized (this) {
+			for (Polled polled : wikis) {
+				if (polled.nextPoll <= now) {
+					due.add(polled);
+					totalRate += polled.rate;
+				}
+			}
+		}
+
+		List<Change> changes = new ArrayList<Change>();
+		if (due.isEmpty()) {
+			return changes;
+		}
+
+		List<Future<List<Change>>> futures = new ArrayList<Future<List<Change>>>();
+		int[] shares = new int[due.size()];
+		for (int i = 0; i < due.size(); i++) {
+			final Wiki wiki = due.get(i).wiki;
+			final int share = Math.max(MIN_SHARE, (int) Math.ceil(max * due.get(i).rate / totalRate));
+			shares[i] = share;
+			futures.add(Wiki.fetchPool.submit(new Callable<List<Change>>() {
+				@Override
+				public List<Change> call() throws Exception {
+					return wiki.fetchRecentChangeList(share);
+				}
+			}));
+		}
+
+		Exception error = null;
+		int failed = 0;
+		try {
+			for (int i = 0; i < due.size(); i++) {
+				Polled polled = due.get(i);
+				try {
+					List<Change> list = futures.get(i).get();
+					changes.addAll(list);
+					polled(polled, list, shares[i]);
+				} catch (ExecutionException e) {
+					failed++;
+					if (error == null) {
+						error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+					failed(polled);
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<List<Change>> future : futures) {
+				future.cancel(true);
+			}
+			throw e;
+		}
+
+		if (failed == due.size()) {
+			throw error;
+		}
+		return changes;
+	}
+
+	private synchronized void polled(Polled polled, List<Change> list, int share) {
+		long now = System.currentTimeMillis();
+		int count = list.size();
+
+		long newest = -1, oldest = -1;
+		for (Change change : list) {
+			long time = parseTime(change.getTimestamp());
+			if (time >= 0) {
+				newest = newest < 0 ? time : Math.max(newest, time);
+				oldest = oldest < 0 ? time : Math.min(oldest, time);
+			}
+		}
+
+		// the edit rate is worked out from the edits' timestamps when the
+		// poll got all it asked for, as there are more still waiting, and
+		// from the time since the last poll when it didn't
+		double sample = -1;
+		boolean full = count >= share;
+		if (polled.lastPoll == 0) {
+			// the first poll gets whatever was newest
+			if (count > 1 && newest > oldest) {
+				sample = (count - 1) * 1000.0 / (newest - oldest);
+			}
+		} else if (full && polled.lastTimestamp >= 0 && newest > polled.lastTimestamp) {
+			sample = count * 1000.0 / (newest - polled.lastTimestamp);
+		} else if (!full) {
+			sample = count * 1000.0 / Math.max(1, now - polled.lastPoll);
+		}
+
+		if (sample >= 0) {
+			polled.rate = polled.lastPoll == 0 ? sample : polled.rate + SMOOTHING * (sample - polled.rate);
+		}
+		polled.lastPoll = now;
+		if (newest >= 0) {
+			polled.lastTimestamp = newest;
+		}
+		polled.failures = 0;
+
+		long interval = MAX_INTERVAL;
+		if (full) {
+			// catch up on the rest straight away
+			interval = 0;
+		} else if (polled.rate > 0) {
+			interval = (long) Math.min(MAX_INTERVAL, Math.max(MIN_INTERVAL, CHANGES_PER_POLL * 1000 / polled.rate));
+		}
+		polled.nextPoll = now + interval;
+	}
+
+	// a timestamp from the API in milliseconds, or -1
+	private long parseTime(String timestamp) {
+		if (timestamp == null) {
+			return -1;
+		}
+		try {
+			return timestampFormat.parse(timestamp).getTime();
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+
+	private synchronized void failed(Polled polled) {
+		long backoff = Math.min(MAX_INTERVAL, MIN_INTERVAL << Math.min(polled.failures, 16));
+		polled.failures++;
+		polled.nextPoll = System.currentTimeMillis() + backoff;
+	}
+}
@@ -0,0 +1,259 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.regex.Pattern;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Receives recent changes as they happen instead of polling for them
+ *
+ * Keeps one long-lived connection open to a server-sent events stream of
+ * recent changes (Wikimedia's EventStreams service by default), and passes
+ * each edit that fetchRecentChanges() would have returned to the listener.
+ * If the connection drops, it reconnects and resumes from the last event it
+ * received using the Last-Event-ID header, waiting twice as long after each
+ * attempt that gets nothing. After MAX_FAILURES such attempts in a row it
+ * gives up and isRunning() turns false, so that the changes can be polled for
+ * instead (see ChangePipeline.streamSource()).
+ */
+public class RecentChangesStream {
+	public static final String DEFAULT_URL = "https://stream.wikimedia.org/v2/stream/recentchange";
+
+	public interface Listener {
+		// called on the stream's own thread, not the UI thread
+		void onChange(Change change);
+	}
+
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	// the server sends something at least this often, even with no edits
+	private static final int READ_TIMEOUT = 60000;
+
+	// how long to wait before reconnecting, unless the server says otherwise
+	private static final long DEFAULT_RETRY = 3000;
+	private static final long MAX_RETRY = 60000;
+
+	// connections in a row that can fail before giving up
+	private static final int MAX_FAILURES = 5;
+
+	private static final Pattern IPV4 = Pattern.compile("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}");
+	private static final Pattern IPV6 = Pattern.compile("[0-9A-Fa-f]{0,4}(:[0-9A-Fa-f]{0,4}){2,7}");
+
+	private final String url;
+	private final Wiki wiki;
+	private final Listener listener;
+
+	private volatile boolean running = false;
+	private volatile HttpURLConnection connection;
+	private Thread thread;
+
+	private String lastEventId;
+	private long retry = DEFAULT_RETRY;
+
+	public RecentChangesStream(Wiki wiki, Listener listener) {
+		this(DEFAULT_URL, wiki, listener);
+	}
+
+	public RecentChangesStream(String url, Wiki wiki, Listener listener) {
+		this.url = url;
+		this.wiki = wiki;
+		this.listener = listener;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readLoop();
+			}
+		}, "RecentChangesStream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+
+		// closing the connection is the only way to interrupt a blocking read
+		HttpURLConnection c = connection;
+		if (c != null) {
+			c.disconnect();
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public String getLastEventId() {
+		return lastEventId;
+	}
+
+	private void readLoop() {
+		long delay = retry;
+		int failures = 0;
+
+		while (running) {
+			boolean received = false;
+			try {
+				received = read();
+			} catch (IOException e) {
+				// fall through and reconnect
+			}
+
+			if (!running) {
+				break;
+			}
+
+			if (received) {
+				// got some events, so the connection was fine
+				delay = retry;
+				failures = 0;
+			} else if (++failures == MAX_FAILURES) {
+				running = false;
+				break;
+			}
+
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				break;
+			}
+			delay = Math.min(delay * 2, MAX_RETRY);
+		}
+	}
+
+	// reads events until the connection ends; returns whether any arrived
+	private boolean read() throws IOException {
+		HttpURLConnection c = ConnectionPool.open(url);
+		c.setConnectTimeout(CONNECT_TIMEOUT);
+		c.setReadTimeout(READ_TIMEOUT);
+		c.setRequestProperty("Accept", "text/event-stream");
+		if (lastEventId != null) {
+			c.setRequestProperty("Last-Event-ID", lastEventId);
+		}
+		connection = c;
+
+		boolean received = false;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(c.getInputStream(), "UTF-8"));
+
+			String id = null;
+			String event = null;
+			StringBuilder data = new StringBuilder();
+
+			for (String line; running && (line = reader.readLine()) != null;) {
+				if (line.length() == 0) {
+					// blank line ends the event
+					if (id != null) {
+						lastEventId = id;
+					}
+					if (data.length() > 0 && (event == null || event.equals("message"))) {
+						dispatch(data.toString());
+						received = true;
+					}
+					id = null;
+					event = null;
+					data.setLength(0);
+					continue;
+				}
+
+				if (line.startsWith(":")) {
+					// comment, sent to keep the connection alive
+					continue;
+				}
+
+				int colon = line.indexOf(':');
+				String field = colon == -1 ? line : line.substring(0, colon);
+				String value = colon == -1 ? "" : line.substring(colon + 1);
+				if (value.startsWith(" ")) {
+					value = value.substring(1);
+				}
+
+				if (field.equals("data")) {
+					if (data.length() > 0) {
+						data.append('\n');
+					}
+					data.append(value);
+				} else if (field.equals("id")) {
+					id = value;
+				} else if (field.equals("event")) {
+					event = value;
+				} else if (field.equals("retry")) {
+					try {
+						retry = Long.parseLong(value);
+					} catch (NumberFormatException e) {
+						// ignore it, as the spec says
+					}
+				}
+			}
+		} catch (IOException e) {
+			// dropped partway through; that still counts as a working
+			// connection if any events got through
+			if (!received) {
+				throw e;
+			}
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			ConnectionPool.finished(c);
+			connection = null;
+		}
+
+		return received;
+	}
+
+	private void dispatch(String data) {
+		try {
+			JSONObject json = (JSONObject) new JSONTokener(data).nextValue();
+			if (matches(json)) {
+				Change change = Change.fromEvent(json);
+				change.setWiki(wiki);
+				listener.onChange(change);
+			}
+		} catch (JSONException e) {
+			// skip events that can't be parsed
+		} catch (ClassCastException e) {
+			// or that aren't objects
+		}
+	}
+
+	// the same filters fetchRecentChanges() asks the API for
+	private boolean matches(JSONObject json) {
+		if (!wiki.getDomain().equals(json.optString("server_name"))) {
+			return false;
+		}
+
+		if (!json.optString("type").equals("edit") || json.optInt("namespace", -1) != 0) {
+			return false;
+		}
+
+		if (wiki.getAnonsOnly() && !isAnon(json.optString("user"))) {
+			return false;
+		}
+
+		return true;
+	}
+
+	// anonymous edits are made under the editor's IP address
+	static boolean isAnon(String user) {
+		return IPV4.matcher(user).matches() || IPV6.matcher(user).matches();
+	}
+}
@@ -0,0 +1,334 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 
+ * 
+ * Helper class for building GET and POST requests with many parameters. The
+ * wiki-specific stuff (where the API is, and the cookies) comes from the
+ * Wiki's Session, and is the same for every request to that wiki.
+ */
+
+class RequestBuilder {
+	// 30 seconds is enough
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 30000;
+
+	// setting this means HttpURLConnection no longer decompresses responses
+	// by itself, so decode() has to
+	private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	// how many times a request is sent before giving up while the server says
+	// it's busy
+	private static final int MAX_ATTEMPTS = 5;
+
+	// bytes as they came over the wire, and after decompression
+	private static final AtomicLong bytesReceived = new AtomicLong();
+	private static final AtomicLong bytesDecoded = new AtomicLong();
+
+	public static long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public static long getBytesDecoded() {
+		return bytesDecoded.get();
+	}
+
+	public static void resetByteCounters() {
+		bytesReceived.set(0);
+		bytesDecoded.set(0);
+	}
+
+	// instance variables and methods
+
+	private final Session session;
+
+	public RequestBuilder(Session session) throws UnsupportedEncodingException {
+		this.session = session;
+		addParam("format", session.getFormat());
+	}
+
+	public String toString() {
+		return session.getBaseUrl() + " : " + builder.toString();
+	}
+
+	private StringBuilder builder = new StringBuilder();
+
+	private RequestScheduler.Priority priority = RequestScheduler.Priority.NORMAL;
+	private boolean maxlagAdded = false;
+
+	public void addParam(String key, int value) throws UnsupportedEncodingException {
+		addParam(key, Integer.toString(value));
+	}
+
+	public void addParam(String key, long value) throws UnsupportedEncodingException {
+		addParam(key, Long.toString(value));
+	}
+
+	public void addParam(String key, boolean value) throws UnsupportedEncodingException {
+		addParam(key, value ? "true" : "false");
+	}
+
+	public void addParam(String key, String value) throws UnsupportedEncodingException {
+		key = URLEncoder.encode(key, "UTF-8");
+		value = URLEncoder.encode(value, "UTF-8");
+		builder.append("&").append(key);
+		builder.append("=").append(value);
+	}
+
+	public void setPriority(RequestScheduler.Priority priority) {
+		this.priority = priority;
+	}
+
+	public String get() throws IOException {
+		return read(send(false));
+	}
+
+	// same as get(), but leaves reading (and closing) the response to the
+	// caller, so that it can be parsed while it is still arriving
+	public InputStream getStream() throws IOException {
+		HttpURLConnection connection = send(false);
+		try {
+			return new FinishingInputStream(decode(connection), connection);
+		} catch (IOException e) {
+			ConnectionPool.release(connection);
+			ConnectionPool.finished(connection);
+			throw e;
+		}
+	}
+
+	public String post() throws IOException {
+		return read(send(true));
+	}
+
+	/*
+	 * Waits for the scheduler to let the request through, then sends it. If
+	 * the server says it's too busy, the scheduler holds requests back for a
+	 * while and this one is tried again, up to MAX_ATTEMPTS times.
+	 *
+	 * A POST is only sent again after a maxlag error, which the API gives
+	 * before doing anything. A 429 or 503 can come from a proxy that gave up
+	 * waiting on a server that went on to make the edit, so a POST that gets
+	 * one fails straight away; a rollback that did go through then shows up
+	 * as alreadyrolled when it's tried again.
+	 */
+	private HttpURLConnection send(boolean post) throws IOException {
+		if (!maxlagAdded && RequestScheduler.sendsMaxlag(priority)) {
+			addParam("maxlag", RequestScheduler.MAXLAG);
+			maxlagAdded = true;
+		}
+
+		RequestScheduler scheduler = RequestScheduler.forDomain(session.getDomain());
+		for (int attempt = 1;; attempt++) {
+			scheduler.acquire(priority);
+			HttpURLConnection connection = post ? openPost() : openGet();
+
+			int status;
+			try {
+				status = connection.getResponseCode();
+			} catch (IOException e) {
+				ConnectionPool.finished(connection);
+				throw e;
+			}
+			if (!RequestScheduler.isBusy(connection, status)) {
+				scheduler.succeeded();
+				return connection;
+			}
+
+			boolean lag = RequestScheduler.isLagged(connection);
+			discard(connection);
+			if (attempt == MAX_ATTEMPTS) {
+				throw new IOException(lag ? "The wiki's databases are lagged" : "The wiki is too busy (HTTP "
+						+ status + ")");
+			}
+			scheduler.backOff(RequestScheduler.getRetryAfter(connection), lag);
+			if (post && !lag) {
+				throw new IOException("The wiki is too busy (HTTP " + status + ")");
+			}
+		}
+	}
+
+	private HttpURLConnection openGet() throws IOException {
+		HttpURLConnection connection = ConnectionPool.open(session.getBaseUrl() + builder.toString());
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+		setCookies(connection);
+		connection.connect();
+		getCookies(connection);
+
+		return connection;
+	}
+
+	private HttpURLConnection openPost() throws IOException {
+		HttpURLConnection connection = ConnectionPool.open(session.getBaseUrl());
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+		setCookies(connection);
+		connection.connect();
+
+		OutputStreamWriter outwriter = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+		outwriter.write(builder.toString());
+		outwriter.close();
+
+		getCookies(connection);
+
+		return connection;
+	}
+
+	// reads and throws away a response that isn't going to be used, so that
+	// the connection can be reused if the whole of it arrives
+	private void discard(HttpURLConnection connection) {
+		try {
+			read(connection);
+		} catch (IOException e) {
+			// it didn't; read() has drained what it could, and the platform
+			// won't reuse the connection
+		}
+	}
+
+	// the whole response has to be read (even for errors) for the connection
+	// to be reused
+	private String read(HttpURLConnection connection) throws IOException {
+		try {
+			return slurpStream(decode(connection));
+		} catch (IOException e) {
+			ConnectionPool.release(connection);
+			throw e;
+		} finally {
+			ConnectionPool.finished(connection);
+		}
+	}
+
+	// unwraps the response according to its Content-Encoding, counting bytes
+	// on both sides of the decompression
+	private InputStream decode(HttpURLConnection connection) throws IOException {
+		InputStream in = new CountingInputStream(connection.getInputStream(), bytesReceived);
+
+		String encoding = connection.getContentEncoding();
+		if (encoding == null) {
+			encoding = "identity";
+		}
+		encoding = encoding.trim().toLowerCase(Locale.US);
+
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			in = new GZIPInputStream(in, 8192);
+		} else if (encoding.equals("deflate")) {
+			// "deflate" is supposed to mean zlib-wrapped data, but some servers
+			// send a raw deflate stream instead
+			in = new BufferedInputStream(in);
+			in.mark(2);
+			int cmf = in.read();
+			int flg = in.read();
+			in.reset();
+
+			boolean zlib = (cmf & 0x0f) == 8 && flg != -1 && ((cmf << 8) | flg) % 31 == 0;
+			in = new InflaterInputStream(in, new Inflater(!zlib), 8192);
+		}
+
+		return new CountingInputStream(in, bytesDecoded);
+	}
+
+	private String slurpStream(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+		StringBuilder builder = new StringBuilder();
+		char[] buf = new char[4096];
+		for (int n; (n = reader.read(buf)) != -1;) {
+			builder.append(new String(buf, 0, n));
+		}
+		reader.close();
+
+		return builder.toString();
+	}
+
+	private void setCookies(URLConnection connection) {
+		connection.setRequestProperty("Cookie", session.getCookieHeader());
+	}
+
+	private void getCookies(URLConnection connection) {
+		Map<String, List<String>> header = connection.getHeaderFields();
+		if (header.containsKey("Set-Cookie")) {
+			for (String cookie : header.get("Set-Cookie")) {
+				cookie = cookie.substring(0, cookie.indexOf(';'));
+				String name = cookie.substring(0, cookie.indexOf('='));
+				String value = cookie.substring(cookie.indexOf('=') + 1, cookie.length());
+				session.putCookie(name, value);
+			}
+		}
+	}
+
+	// tells ConnectionPool the connection is finished with once the caller
+	// closes the response
+	private static class FinishingInputStream extends FilterInputStream {
+		private final HttpURLConnection connection;
+
+		FinishingInputStream(InputStream in, HttpURLConnection connection) {
+			super(in);
+			this.connection = connection;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				ConnectionPool.finished(connection);
+			}
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private final AtomicLong counter;
+
+		CountingInputStream(InputStream in, AtomicLong counter) {
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				counter.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException {
+			int n = super.read(buf, off, len);
+			if (n > 0) {
+				counter.addAndGet(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			counter.addAndGet(skipped);
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Decides when each request to a wiki may be sent
+ *
+ * Requests to one domain share a token bucket, so that bursts (like the
+ * pipeline filling up) are spread out instead of hitting the API all at once.
+ * When more than one request is waiting, the most urgent goes first, so a
+ * rollback never waits behind background polling. When the server says it's
+ * overloaded (HTTP 429 or 503) or its databases are lagged (a maxlag error),
+ * requests are held back for a while, doubling each time it happens again.
+ */
+class RequestScheduler {
+
+	enum Priority {
+		// things the user is waiting on, like rollbacks and logging in
+		HIGH,
+		// content for changes that are about to be shown
+		NORMAL,
+		// polling for new changes
+		LOW
+	}
+
+	// requests per second, and how many can be sent at once after a quiet spell
+	private static final double DEFAULT_RATE = 10;
+	private static final int DEFAULT_BURST = 10;
+
+	// the first backoff, and the longest
+	private static final long BASE_BACKOFF = 1000;
+	private static final long MAX_BACKOFF = 60000;
+
+	// what the API is sent as maxlag, in seconds
+	static final int MAXLAG = 5;
+
+	private static final Map<String, RequestScheduler> schedulers = new HashMap<String, RequestScheduler>();
+
+	private static final Random random = new Random();
+
+	public static synchronized RequestScheduler forDomain(String domain) {
+		RequestScheduler scheduler = schedulers.get(domain);
+		if (scheduler == null) {
+			scheduler = new RequestScheduler(DEFAULT_RATE, DEFAULT_BURST);
+			schedulers.put(domain, scheduler);
+		}
+		return scheduler;
+	}
+
+	private static class Waiter implements Comparable<Waiter> {
+		final Priority priority;
+		final long seq;
+
+		Waiter(Priority priority, long seq) {
+			this.priority = priority;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Waiter other) {
+			if (priority != other.priority) {
+				return priority.compareTo(other.priority);
+			}
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+
+	private double rate;
+	private int burst;
+
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	private final PriorityQueue<Waiter> waiting = new PriorityQueue<Waiter>();
+	private long seq = 0;
+
+	// nothing is sent before pausedUntil; requests that send maxlag also
+	// wait for lagPausedUntil
+	private long pausedUntil = 0, lagPausedUntil = 0;
+
+	// busy responses in a row
+	private int failures = 0;
+
+	RequestScheduler(double rate, int burst) {
+		this.rate = rate;
+		this.burst = burst;
+		this.tokens = burst;
+	}
+
+	public synchronized void setRate(double rate, int burst) {
+		refill(System.nanoTime());
+		this.rate = rate;
+		this.burst = burst;
+		tokens = Math.min(tokens, burst);
+		notifyAll();
+	}
+
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	// whether requests of this priority should tell the API to refuse them
+	// when its databases are lagged
+	public static boolean sendsMaxlag(Priority priority) {
+		return priority != Priority.HIGH;
+	}
+
+	/**
+	 * Waits until a request of the given priority may be sent. Requests of the
+	 * same priority go in the order they asked.
+	 */
+	public synchronized void acquire(Priority priority) throws InterruptedIOException {
+		Waiter me = new Waiter(priority, seq++);
+		waiting.add(me);
+
+		try {
+			while (true) {
+				long now = System.nanoTime();
+				refill(now);
+
+				long until = sendsMaxlag(priority) ? Math.max(pausedUntil, lagPausedUntil) : pausedUntil;
+				long wait;
+				if (now < until) {
+					wait = until - now;
+				} else if (waiting.peek() != me) {
+					// woken up when whoever is ahead is done
+					wait = 0;
+				} else if (tokens >= 1) {
+					tokens -= 1;
+					return;
+				} else {
+					wait = (long) ((1 - tokens) / rate * 1e9) + 1;
+				}
+
+				if (wait == 0) {
+					wait();
+				} else {
+					wait(wait / 1000000, (int) (wait % 1000000));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to send a request");
+		} finally {
+			waiting.remove(me);
+			notifyAll();
+		}
+	}
+
+	public synchronized void succeeded() {
+		failures = 0;
+	}
+
+	/**
+	 * Holds requests back after the server said it was busy. retryAfter is how
+	 * long the server asked for, in milliseconds, or -1; lag says whether it
+	 * was only a maxlag error, which doesn't stop requests that don't send
+	 * maxlag. Returns how long requests are held back.
+	 */
+	public synchronized long backOff(long retryAfter, boolean lag) {
+		long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(failures, 16));
+		failures++;
+
+		// anywhere from half to all of it, so that clients that were turned
+		// away together don't all come back together
+		long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+		delay = Math.max(delay, retryAfter);
+
+		long until = System.nanoTime() + delay * 1000000;
+		if (lag) {
+			lagPausedUntil = Math.max(lagPausedUntil, until);
+		} else {
+			pausedUntil = Math.max(pausedUntil, until);
+		}
+		return delay;
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+		lastRefill = now;
+	}
+
+	/**
+	 * Whether a response says the server is too busy to answer, so that the
+	 * request should be tried again later.
+	 */
+	public static boolean isBusy(HttpURLConnection connection, int status) {
+		return status == 429 || status == 503 || isLagged(connection);
+	}
+
+	// the API refused because of maxlag
+	public static boolean isLagged(HttpURLConnection connection) {
+		return "maxlag".equals(connection.getHeaderField("MediaWiki-API-Error"))
+				|| connection.getHeaderField("X-Database-Lag") != null;
+	}
+
+	// the Retry-After header in milliseconds, or -1 if there isn't a usable one
+	public static long getRetryAfter(HttpURLConnection connection) {
+		String header = connection.getHeaderField("Retry-After");
+		if (header != null) {
+			try {
+				return Long.parseLong(header.trim()) * 1000;
+			} catch (NumberFormatException e) {
+				// it can also be a date, but MediaWiki only sends seconds
+			}
+		}
+		return -1;
+	}
+}
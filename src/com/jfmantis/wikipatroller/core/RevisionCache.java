@@ -0,0 +1,118 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the text of revisions on disk, so that they don't have to be
+ * downloaded again
+ *
+ * A revision never changes once it's saved, so it can be kept under its revid
+ * for as long as there's room. The same pages get edited again and again, and
+ * the old side of each diff is usually the new side of one fetched a little
+ * earlier, so Wiki.getRevisions() looks here first and only asks the wiki for
+ * what's missing.
+ *
+ * Each revision is a gzipped file named after its wiki and revid, kept in a
+ * DiskStore: once the files add up to more than the size limit, the ones used
+ * least recently are deleted.
+ */
+public class RevisionCache {
+
+	public static class Revision {
+		public final long pageid, revid;
+		public final String user, text;
+
+		Revision(long pageid, long revid, String user, String text) {
+			this.pageid = pageid;
+			this.revid = revid;
+			this.user = user;
+			this.text = text;
+		}
+	}
+
+	// bumped if the file format changes; files in another format are ignored
+	private static final int VERSION = 2;
+
+	private static final DiskStore.Format<Revision> FORMAT = new DiskStore.Format<Revision>() {
+		@Override
+		public void write(DataOutputStream out, Revision revision) throws IOException {
+			byte[] bytes = revision.text.getBytes("UTF-8");
+			out.writeLong(revision.pageid);
+			out.writeLong(revision.revid);
+			out.writeUTF(revision.user == null ? "" : revision.user);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public Revision read(DataInputStream in) throws IOException {
+			long pageid = in.readLong();
+			long revid = in.readLong();
+			String user = in.readUTF();
+			byte[] text = new byte[in.readInt()];
+			in.readFully(text);
+			return new Revision(pageid, revid, user, new String(text, "UTF-8"));
+		}
+	};
+
+	private final DiskStore<Revision> store;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Uses dir for the files, creating it if needed, and picks up whatever an
+	 * earlier session left there. Nothing is read from disk until the cache is
+	 * first used, so it can be created on the UI thread.
+	 */
+	public RevisionCache(File dir, long maxBytes) {
+		store = new DiskStore<Revision>(dir, maxBytes, VERSION, FORMAT);
+	}
+
+	// the revision, or null if it isn't cached
+	public Revision get(String domain, long revid) {
+		Revision revision = store.read(key(domain, revid));
+		if (revision == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return revision;
+	}
+
+	// saves a revision, unless it's already there
+	public void put(String domain, long revid, long pageid, String user, String text) {
+		String key = key(domain, revid);
+		if (!store.contains(key)) {
+			store.write(key, new Revision(pageid, revid, user, text));
+		}
+	}
+
+	public long size() {
+		return store.size();
+	}
+
+	public int count() {
+		return store.count();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public void clear() {
+		store.clear();
+	}
+
+	private static String key(String domain, long revid) {
+		return domain + "-" + revid;
+	}
+}
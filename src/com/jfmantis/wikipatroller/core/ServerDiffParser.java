@@ -0,0 +1,166 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+import name.fraser.neil.plaintext.diff_match_patch.DiffList;
+import name.fraser.neil.plaintext.diff_match_patch.Operation;
+
+/**
+ * Turns the HTML table rows of a MediaWiki diff (as returned by
+ * action=compare or prop=revisions&rvdiffto) into the same list of
+ * insertions, deletions and equalities that diff_match_patch produces, so
+ * that both can be displayed the same way.
+ */
+class ServerDiffParser {
+	private static final Pattern ROW = Pattern.compile("<tr[^>]*>(.*?)</tr>", Pattern.DOTALL);
+	private static final Pattern CELL = Pattern.compile("<td[^>]*class=\"([^\"]*)\"[^>]*>(.*?)</td>",
+			Pattern.DOTALL);
+	private static final Pattern CHANGE = Pattern.compile("<(del|ins)[^>]*>(.*?)</\\1>", Pattern.DOTALL);
+	private static final Pattern TAG = Pattern.compile("<[^>]*>");
+	private static final Pattern ENTITY = Pattern.compile("&(#x[0-9a-fA-F]+|#[0-9]+|[a-zA-Z]+);");
+
+	public static DiffList parse(String html, diff_match_patch differ) {
+		DiffList diffs = new DiffList();
+
+		Matcher row = ROW.matcher(html);
+		while (row.find()) {
+			String deleted = null, added = null, context = null;
+			boolean lineno = false;
+
+			Matcher cell = CELL.matcher(row.group(1));
+			while (cell.find()) {
+				String cls = cell.group(1);
+				if (cls.contains("diff-lineno")) {
+					lineno = true;
+				} else if (cls.contains("diff-deletedline")) {
+					deleted = cell.group(2);
+				} else if (cls.contains("diff-addedline")) {
+					added = cell.group(2);
+				} else if (cls.contains("diff-context") && context == null) {
+					context = cell.group(2);
+				}
+			}
+
+			if (lineno) {
+				// start of a new hunk; mark the lines that were skipped
+				if (diffs.size() > 0) {
+					diffs.add(new Diff(Operation.EQUAL, " . . . \n"));
+				}
+			} else if (deleted != null && added != null) {
+				addChangedLine(diffs, deleted, added);
+			} else if (deleted != null) {
+				diffs.add(new Diff(Operation.DELETE, toText(deleted) + "\n"));
+			} else if (added != null) {
+				diffs.add(new Diff(Operation.INSERT, toText(added) + "\n"));
+			} else if (context != null) {
+				diffs.add(new Diff(Operation.EQUAL, toText(context) + "\n"));
+			}
+		}
+
+		differ.diff_cleanupMerge(diffs);
+		return diffs;
+	}
+
+	/*
+	 * A line that was changed rather than added or removed has the changed
+	 * words wrapped in <del> on the old side and <ins> on the new side. The
+	 * text between them is the same on both sides, so the two can be woven
+	 * back together into one line. If they don't line up, the whole old line
+	 * is shown as deleted and the whole new line as inserted.
+	 */
+	private static void addChangedLine(DiffList diffs, String deleted, String added) {
+		List<String> oldParts = split(deleted);
+		List<String> newParts = split(added);
+
+		boolean aligned = oldParts.size() == newParts.size();
+		for (int i = 0; aligned && i < oldParts.size(); i += 2) {
+			aligned = oldParts.get(i).equals(newParts.get(i));
+		}
+
+		if (!aligned) {
+			diffs.add(new Diff(Operation.DELETE, toText(deleted) + "\n"));
+			diffs.add(new Diff(Operation.INSERT, toText(added) + "\n"));
+			return;
+		}
+
+		for (int i = 0; i < oldParts.size(); i++) {
+			if (i % 2 == 0) {
+				add(diffs, Operation.EQUAL, oldParts.get(i));
+			} else {
+				add(diffs, Operation.DELETE, oldParts.get(i));
+				add(diffs, Operation.INSERT, newParts.get(i));
+			}
+		}
+		diffs.add(new Diff(Operation.EQUAL, "\n"));
+	}
+
+	private static void add(DiffList diffs, Operation op, String text) {
+		if (text.length() > 0) {
+			diffs.add(new Diff(op, text));
+		}
+	}
+
+	// alternating unchanged and changed text, starting and ending with
+	// (possibly empty) unchanged text
+	private static List<String> split(String cell) {
+		List<String> parts = new ArrayList<String>();
+
+		int pos = 0;
+		Matcher change = CHANGE.matcher(cell);
+		while (change.find()) {
+			parts.add(toText(cell.substring(pos, change.start())));
+			parts.add(toText(change.group(2)));
+			pos = change.end();
+		}
+		parts.add(toText(cell.substring(pos)));
+
+		return parts;
+	}
+
+	private static String toText(String html) {
+		return decodeEntities(TAG.matcher(html).replaceAll(""));
+	}
+
+	private static String decodeEntities(String text) {
+		if (text.indexOf('&') == -1) {
+			return text;
+		}
+
+		StringBuffer buffer = new StringBuffer();
+		Matcher entity = ENTITY.matcher(text);
+		while (entity.find()) {
+			String name = entity.group(1);
+			String replacement = entity.group();
+
+			if (name.startsWith("#")) {
+				try {
+					int codePoint = name.startsWith("#x") ? Integer.parseInt(name.substring(2), 16) : Integer
+							.parseInt(name.substring(1));
+					replacement = new String(Character.toChars(codePoint));
+				} catch (IllegalArgumentException e) {
+					// not a real character, so leave it as it is
+				}
+			} else if (name.equals("lt")) {
+				replacement = "<";
+			} else if (name.equals("gt")) {
+				replacement = ">";
+			} else if (name.equals("amp")) {
+				replacement = "&";
+			} else if (name.equals("quot")) {
+				replacement = "\"";
+			} else if (name.equals("nbsp")) {
+				replacement = "\u00a0";
+			}
+
+			entity.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+		}
+		entity.appendTail(buffer);
+
+		return buffer.toString();
+	}
+}
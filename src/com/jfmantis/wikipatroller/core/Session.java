@@ -0,0 +1,54 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What requests to one wiki have in common: where its API is, and the cookies
+ * that keep the user logged in. Each Wiki has its own, so several wikis can be
+ * used at once, each logged in (or not) separately.
+ *
+ * Kept when the Wiki is passed to another activity, so the login survives.
+ */
+class Session implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String domain, baseUrl, format;
+
+	private final HashMap<String, String> cookies = new HashMap<String, String>();
+
+	Session(String domain, String apiUrl, String format) {
+		this.domain = domain;
+		this.baseUrl = apiUrl + "?";
+		this.format = format;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public synchronized String getCookieHeader() {
+		StringBuilder cookie = new StringBuilder();
+		for (Map.Entry<String, String> entry : cookies.entrySet()) {
+			cookie.append(entry.getKey() + "=" + entry.getValue() + ";");
+		}
+		return cookie.toString();
+	}
+
+	public synchronized void putCookie(String name, String value) {
+		cookies.put(name, value);
+	}
+
+	public synchronized void clearCookies() {
+		cookies.clear();
+	}
+}
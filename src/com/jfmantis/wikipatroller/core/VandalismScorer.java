@@ -0,0 +1,106 @@
+package com.jfmantis.wikipatroller.core;
+
+/**
+ * The default ChangeScorer, which only looks at things that are cheap to
+ * check: how much was removed, who made the edit, whether it has a summary,
+ * whether the added text is shouting or repeats itself, and how many words
+ * the wiki's WordMatcher found in it. Scores are roughly 0 to 150.
+ */
+public class VandalismScorer implements ChangeScorer {
+	// points for removing the whole page, less for removing part of it
+	private static final double BLANKING = 40;
+
+	// points for each doubling of the size change
+	private static final double SIZE = 1.5;
+
+	private static final double ANON = 10;
+	private static final double NO_SUMMARY = 5;
+
+	// points for each word found by the wiki's WordMatcher, up to MAX_WORDS
+	private static final double WORD = 10;
+	private static final int MAX_WORDS = 4;
+
+	// points for added text that's all capitals
+	private static final double SHOUTING = 20;
+
+	// points for the same character many times in a row
+	private static final double REPEATED = 15;
+	private static final int MIN_RUN = 4, MAX_RUN = 20;
+
+	// added text shorter than this isn't checked for capitals
+	private static final int MIN_LETTERS = 10;
+
+	private static final double LN2 = Math.log(2);
+
+	@Override
+	public double score(Change change) {
+		double score = 0;
+
+		int lendiff = change.getLenDiff();
+		if (lendiff < 0 && change.getOldlen() > 0) {
+			score += BLANKING * Math.min(1.0, -lendiff / (double) change.getOldlen());
+		}
+		score += SIZE * Math.log(1 + Math.abs(lendiff)) / LN2;
+
+		if (RecentChangesStream.isAnon(change.getUser())) {
+			score += ANON;
+		}
+		if (!change.hasSummary()) {
+			score += NO_SUMMARY;
+		}
+
+		DiffText diff = change.getDiff();
+		if (diff != null) {
+			score += scoreInserted(diff);
+		}
+
+		score += WORD * Math.min(change.getMatches().size(), MAX_WORDS);
+
+		return score;
+	}
+
+	// looks at every inserted character once
+	private double scoreInserted(DiffText diff) {
+		int letters = 0, upper = 0, longestRun = 0;
+
+		for (int s = 0; s < diff.getSpanCount(); s++) {
+			if (diff.getSpanKind(s) != DiffText.Kind.INSERTED) {
+				continue;
+			}
+
+			char last = 0;
+			int run = 0;
+			for (int i = diff.getSpanStart(s), end = diff.getSpanEnd(s); i < end; i++) {
+				char c = diff.charAt(i);
+
+				if (Character.isLetter(c)) {
+					letters++;
+					if (Character.isUpperCase(c)) {
+						upper++;
+					}
+				}
+
+				// only letters and ! or ? count; runs of digits, spaces,
+				// dashes and the like are normal in wikitext
+				if (c == last && (Character.isLetter(c) || c == '!' || c == '?')) {
+					run++;
+				} else {
+					run = 1;
+					last = c;
+				}
+				if (run > longestRun) {
+					longestRun = run;
+				}
+			}
+		}
+
+		double score = 0;
+		if (letters >= MIN_LETTERS) {
+			score += SHOUTING * upper / letters;
+		}
+		if (longestRun >= MIN_RUN) {
+			score += REPEATED * Math.min(longestRun, MAX_RUN) / MAX_RUN;
+		}
+		return score;
+	}
+}
@@ -0,0 +1,1155 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+public class Wiki implements Serializable {
+
+	/*
+	 * These error enums are used for errors that would happen during normal
+	 * operation and don't have anything to do with Java -- wrong password, edit
+	 * conflict, etc. Real errors, like connection and parsing problems, are
+	 * dealt with through exceptions.
+	 */
+
+	public enum LoginError {
+		INVALID, MISSING, BLOCKED, ROLLBACK, WRONGPASS, THROTTLED, UNKNOWN, IOERROR
+	}
+
+	public enum RevertError {
+		TOOLATE, ALREADYROLLED, ONLYAUTHOR, NOCHANGE, UNKNOWN, IOERROR
+	}
+
+	private static final long serialVersionUID = -2398152104080597156L;
+
+	// most revids the API accepts in one query (for non-bots)
+	private static final int REVISIONS_PER_REQUEST = 50;
+
+	// requests for large batches of revisions are run in parallel on this; it's
+	// shared by every Wiki, so patrolling more wikis doesn't mean more threads
+	private static final int FETCH_THREADS = 4;
+	static final ExecutorService fetchPool = Executors.newFixedThreadPool(FETCH_THREADS);
+
+	// with parallel diffs on, halves of large diffs are run on this, one
+	// thread per core; when it's busy the thread doing the diff does the work
+	// itself, and its threads go away when there's nothing to diff
+	private static final int DIFF_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final ThreadPoolExecutor diffPool = new ThreadPoolExecutor(DIFF_THREADS, DIFF_THREADS, 30,
+			TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DIFF_THREADS * 4));
+	static {
+		diffPool.allowCoreThreadTimeOut(true);
+	}
+
+	// titles remembered by noteLatest()
+	private static final int MAX_LATEST_REVIDS = 5000;
+
+	private String domain, username;
+	private boolean loggedin = false;
+	private boolean anonsonly = true;
+	private boolean serverdiffs = false;
+	private boolean tokendiffs = true;
+	private boolean paralleldiffs = false;
+
+	// where fetchRecentChanges() left off
+	private String rcTimestamp;
+	private long lastRcid;
+
+	// where requests go, and the cookies they carry
+	private final Session session;
+
+	private diff_match_patch differ;
+
+	// compiled from a word list that the app keeps, so not serialized
+	private transient volatile WordMatcher wordMatcher;
+
+	// not kept when the Wiki is passed to another activity, and fetched again
+	private transient volatile String rollbackToken;
+
+	// where revision text is kept between fetches, or null
+	private transient volatile RevisionCache revisionCache;
+
+	// where finished diffs are kept, or null
+	private transient volatile DiffCache diffCache;
+
+	private final LatestRevids latestRevids = new LatestRevids();
+
+	public Wiki(String domain) {
+		this(domain, "https://" + domain + "/w/api.php");
+	}
+
+	// for wikis whose api.php isn't in the usual place, such as a test server
+	public Wiki(String domain, String apiUrl) {
+		if (domain == null || domain.length() == 0) {
+			this.domain = "en.wikipedia.org";
+		}
+		this.domain = domain;
+
+		session = new Session(domain, apiUrl, "json");
+
+		differ = new diff_match_patch();
+		// diffs are computed on several threads at once, so don't let each of
+		// them allocate new arrays for every step of the bisection
+		differ.Diff_RangeBisect = true;
+	}
+
+	public boolean getAnonsOnly() {
+		return anonsonly;
+	}
+
+	// set whether fetchRecentChanges() should only retrieve edits made by
+	// anonymous users
+	public void setAnonsOnly(boolean b) {
+		anonsonly = b;
+	}
+
+	public boolean getServerDiffs() {
+		return serverdiffs;
+	}
+
+	// set whether fetchRecentChanges() should ask the wiki for diffs instead of
+	// downloading both revisions and diffing them locally
+	public void setServerDiffs(boolean b) {
+		serverdiffs = b;
+	}
+
+	public boolean getTokenDiffs() {
+		return tokendiffs;
+	}
+
+	// set whether local diffs are done a word (or link, template, ...) at a
+	// time, which is faster and easier to read, or a character at a time
+	public void setTokenDiffs(boolean b) {
+		tokendiffs = b;
+	}
+
+	public boolean getParallelDiffs() {
+		return paralleldiffs;
+	}
+
+	// set whether large local diffs are split across several cores, which
+	// only helps with big rewrites that would otherwise run into the timeout
+	public void setParallelDiffs(boolean b) {
+		paralleldiffs = b;
+		differ.Diff_Executor = b ? diffPool : null;
+	}
+
+	public WordMatcher getWordMatcher() {
+		return wordMatcher;
+	}
+
+	// set the words to look for in what each change inserts, or null for none
+	public void setWordMatcher(WordMatcher matcher) {
+		wordMatcher = matcher;
+	}
+
+	public RevisionCache getRevisionCache() {
+		return revisionCache;
+	}
+
+	// set where getRevisions() keeps revisions it has downloaded, or null to
+	// always download them; one cache can be shared by several wikis
+	public void setRevisionCache(RevisionCache cache) {
+		revisionCache = cache;
+	}
+
+	public DiffCache getDiffCache() {
+		return diffCache;
+	}
+
+	// set where finished diffs are kept so that a change seen again isn't
+	// fetched or diffed again, or null for none; can be shared by several
+	// wikis
+	public void setDiffCache(DiffCache cache) {
+		diffCache = cache;
+	}
+
+	// the diff executor isn't serialized with the differ
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setParallelDiffs(paralleldiffs);
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public boolean isLoggedIn() {
+		return loggedin;
+	}
+
+	public String getUser() {
+		return username;
+	}
+
+	public String makeArticleURL(String name) {
+		return "http://" + domain + "/wiki/" + name;
+	}
+
+	public String makeUserURL(String name) {
+		return makeArticleURL("User:" + name);
+	}
+
+	// doesn't *really* log out
+	public synchronized void logout() {
+		loggedin = false;
+		rollbackToken = null;
+		session.clearCookies();
+	}
+
+	public LoginError login(String username, String password) throws IOException, JSONException {
+		LoginError err = checkIfValidUser(username);
+		if (err != null) {
+			return err;
+		}
+
+		// get login token
+		RequestBuilder request = new RequestBuilder(session);
+		request.setPriority(RequestScheduler.Priority.HIGH);
+		request.addParam("action", "login");
+		request.addParam("lgname", username);
+
+		String loginToken = parseJSON(request.post()).getJSONObject("login").getString("token");
+
+		// actually login
+		request.addParam("lgpassword", password);
+		request.addParam("lgtoken", loginToken);
+
+		String result = parseJSON(request.post()).getJSONObject("login").getString("result");
+
+		if (result.equals("Success")) {
+			this.username = username;
+			loggedin = true;
+			rollbackToken = null;
+			return null;
+		} else if (result.equals("WrongPass") || result.equals("WrongPluginPass")) {
+			return LoginError.WRONGPASS;
+		} else if (result.equals("Throttled")) {
+			return LoginError.THROTTLED;
+		} else {
+			return LoginError.UNKNOWN;
+		}
+	}
+
+	/**
+	 * Returns up to about count changes that haven't been returned before,
+	 * oldest first. The first call returns the newest changes; after that,
+	 * each call picks up where the last one stopped (by timestamp and rcid),
+	 * following continuation through bursts of edits so none are skipped.
+	 * Returns an empty array if nothing new has happened.
+	 */
+	public synchronized Change[] fetchRecentChanges(int count) throws IOException, Exception {
+		String timestamp = rcTimestamp;
+		long rcid = lastRcid;
+
+		List<Change> changes = fetchRecentChangeList(count);
+		try {
+			fetchDiffs(changes);
+		} catch (Exception e) {
+			// go back to where we were, so that nothing is lost
+			rcTimestamp = timestamp;
+			lastRcid = rcid;
+			throw e;
+		}
+
+		Change[] array = new Change[changes.size()];
+		changes.toArray(array);
+		return array;
+	}
+
+	/**
+	 * Like fetchRecentChanges(), but doesn't fetch the diffs, which is left to
+	 * the caller (through fetchDiffs() or fetchContent() and computeDiff()).
+	 */
+	public synchronized List<Change> fetchRecentChangeList(int count) throws IOException, JSONException {
+		List<Change> fresh = new ArrayList<Change>();
+
+		// get recent change list, one page at a time
+		JSONObject continuation = null;
+		do {
+			RequestBuilder request = new RequestBuilder(session);
+			request.setPriority(RequestScheduler.Priority.LOW);
+			request.addParam("action", "query");
+			request.addParam("list", "recentchanges");
+			request.addParam("rcshow", (anonsonly ? "anon" : ""));
+			request.addParam("rcnamespace", "0");
+			request.addParam("rctype", "edit");
+			request.addParam("rcprop", "user|comment|title|ids|sizes|timestamp|flags");
+			request.addParam("rclimit", count);
+
+			if (rcTimestamp != null) {
+				request.addParam("rcdir", "newer");
+				request.addParam("rcstart", rcTimestamp);
+			}
+
+			if (continuation == null) {
+				request.addParam("continue", "");
+			} else {
+				Iterator<?> keys = continuation.keys();
+				while (keys.hasNext()) {
+					String key = (String) keys.next();
+					request.addParam(key, continuation.getString(key));
+				}
+			}
+
+			JSONObject response = parseJSON(request.get());
+			JSONArray rcArray = response.getJSONObject("query").getJSONArray("recentchanges");
+
+			if (rcTimestamp == null) {
+				// first call: newest changes, newest first
+				for (int i = rcArray.length() - 1; i >= 0; i--) {
+					Change change = new Change(rcArray.getJSONObject(i));
+					change.setWiki(this);
+					fresh.add(change);
+					noteLatest(change);
+				}
+			} else {
+				// changes with the same timestamp as the last one seen come
+				// back again, so skip anything up to the last rcid
+				for (int i = 0; i < rcArray.length(); i++) {
+					Change change = new Change(rcArray.getJSONObject(i));
+					change.setWiki(this);
+					if (change.getRcid() > lastRcid) {
+						fresh.add(change);
+						noteLatest(change);
+					}
+				}
+			}
+
+			continuation = getContinuation(response);
+		} while (rcTimestamp != null && continuation != null && fresh.size() < count);
+
+		// if a page appears more than once, only take the most recent edit
+		BoundedLongSet pageids = new BoundedLongSet(fresh.size());
+		ArrayList<Change> changes = new ArrayList<Change>();
+		for (int i = fresh.size() - 1; i >= 0; i--) {
+			Change change = fresh.get(i);
+			if (pageids.add(change.getPageid())) {
+				changes.add(change);
+			}
+		}
+		Collections.reverse(changes);
+
+		if (fresh.size() > 0) {
+			Change last = fresh.get(fresh.size() - 1);
+			rcTimestamp = last.getTimestamp();
+			lastRcid = last.getRcid();
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Fills in the diff and previous user of changes that didn't come from
+	 * fetchRecentChanges(), such as the ones from a RecentChangesStream.
+	 */
+	public void fetchDiffs(List<Change> changes) throws IOException, Exception {
+		List<Change> missing = new ArrayList<Change>();
+		for (Change change : changes) {
+			noteLatest(change);
+			if (!fromDiffCache(change)) {
+				missing.add(change);
+			}
+		}
+
+		// diffs the wiki couldn't provide are done locally
+		List<Change> local = missing;
+		if (serverdiffs && missing.size() > 0) {
+			local = fetchServerDiffs(missing);
+		}
+		if (local.size() > 0) {
+			fetchLocalDiffs(local);
+		}
+
+		for (Change change : missing) {
+			toDiffCache(change);
+		}
+	}
+
+	/**
+	 * First half of fetching a single change's diff: downloads what the diff
+	 * is made from. In server diff mode that's usually the finished diff;
+	 * otherwise it's the text of both revisions, which is kept in the change
+	 * until computeDiff() is called.
+	 */
+	public void fetchContent(final Change change) throws IOException, Exception {
+		noteLatest(change);
+
+		if (fromDiffCache(change)) {
+			return;
+		}
+
+		if (serverdiffs && fetchServerDiffs(Collections.singletonList(change)).isEmpty()) {
+			return;
+		}
+
+		long[] revids = { change.getOldrevid(), change.getRevid() };
+		getRevisions(revids, new RevisionHandler() {
+			@Override
+			public void handleRevision(long pageid, long revid, String user, String text) {
+				if (text == null) {
+					text = "";
+				}
+
+				if (revid == change.getOldrevid()) {
+					change.setPrevUser(user);
+					change.setTexts(text, change.getNewText());
+				} else if (revid == change.getRevid()) {
+					change.setTexts(change.getOldText(), text);
+				}
+			}
+		});
+
+		if (change.getOldText() == null || change.getNewText() == null) {
+			throw new Exception("Missing revisions for " + change.getTitle());
+		}
+	}
+
+	// second half: diffs the text fetched by fetchContent(), if necessary
+	public void computeDiff(Change change) {
+		if (change.getDiff() == null) {
+			setDiff(change, genDiff(change.getOldText(), change.getNewText()));
+		}
+		change.setTexts(null, null);
+		toDiffCache(change);
+	}
+
+	// a change that needs a revision's text, and which side of the diff it's
+	private static class Target {
+		final Change change;
+		final boolean old;
+
+		Target(Change change, boolean old) {
+			this.change = change;
+			this.old = old;
+		}
+	}
+
+	// downloads the old and new text of each change and diffs them here
+	private void fetchLocalDiffs(List<Change> changes) throws IOException, Exception {
+		// each revision whose content is needed, and the changes that need it;
+		// with two edits to the same page in a row, the first one's new
+		// revision is the second one's old revision
+		final Map<Long, List<Target>> targets = new LinkedHashMap<Long, List<Target>>();
+		for (Change change : changes) {
+			addTarget(targets, change.getOldrevid(), new Target(change, true));
+			addTarget(targets, change.getRevid(), new Target(change, false));
+		}
+
+		long[] revids = new long[targets.size()];
+		int i = 0;
+		for (long revid : targets.keySet()) {
+			revids[i++] = revid;
+		}
+
+		// text of whichever revision of a change came first
+		final Map<Change, String> pending = new HashMap<Change, String>();
+
+		// get current and previous text of each edit, diffing each one as soon
+		// as both of its revisions have arrived
+		getRevisions(revids, new RevisionHandler() {
+			@Override
+			public void handleRevision(long pageid, long revid, String user, String text) {
+				List<Target> list = targets.get(revid);
+				if (list == null) {
+					return;
+				}
+				if (text == null) {
+					text = "";
+				}
+
+				for (Target target : list) {
+					Change change = target.change;
+					if (target.old) {
+						change.setPrevUser(user);
+					}
+
+					String other = pending.remove(change);
+					if (other == null) {
+						pending.put(change, text);
+					} else if (target.old) {
+						setDiff(change, genDiff(text, other));
+					} else {
+						setDiff(change, genDiff(other, text));
+					}
+				}
+			}
+		});
+
+		for (Change change : changes) {
+			if (change.getDiff() == null) {
+				throw new Exception("Missing revisions for " + change.getTitle());
+			}
+		}
+	}
+
+	private static void addTarget(Map<Long, List<Target>> targets, long revid, Target target) {
+		List<Target> list = targets.get(revid);
+		if (list == null) {
+			list = new ArrayList<Target>();
+			targets.put(revid, list);
+		}
+		list.add(target);
+	}
+
+	/*
+	 * Asks the wiki for the diff of each change against the previous revision,
+	 * which is much smaller than both revisions' full text. The wiki only
+	 * renders a limited number of uncached diffs per request, so changes whose
+	 * diff isn't available are returned to be diffed locally. Like the
+	 * revisions themselves, the diffs are asked for in chunks of
+	 * REVISIONS_PER_REQUEST.
+	 */
+	private List<Change> fetchServerDiffs(List<Change> changes) throws IOException, Exception {
+		Map<Long, Change> byRevid = new HashMap<Long, Change>();
+		long[] revids = new long[changes.size()];
+		long[] oldrevids = new long[changes.size()];
+		for (int i = 0; i < changes.size(); i++) {
+			byRevid.put(changes.get(i).getRevid(), changes.get(i));
+			revids[i] = changes.get(i).getRevid();
+			oldrevids[i] = changes.get(i).getOldrevid();
+		}
+
+		List<JSONObject> chunks = inChunks(revids, new Chunk<JSONObject>() {
+			@Override
+			public JSONObject fetch(long[] chunk) throws Exception {
+				RequestBuilder request = new RequestBuilder(session);
+				request.addParam("action", "query");
+				request.addParam("prop", "revisions");
+				request.addParam("rvprop", "ids");
+				request.addParam("rvdiffto", "prev");
+				request.addParam("revids", joinRevids(chunk));
+				return parseJSON(request.get()).getJSONObject("query").getJSONObject("pages");
+			}
+		});
+		for (JSONObject pages : chunks) {
+			Iterator<?> keys = pages.keys();
+			while (keys.hasNext()) {
+				JSONArray revisions = pages.getJSONObject((String) keys.next()).optJSONArray("revisions");
+				for (int i = 0; revisions != null && i < revisions.length(); i++) {
+					JSONObject revision = revisions.getJSONObject(i);
+					Change change = byRevid.get(revision.getLong("revid"));
+					JSONObject diff = revision.optJSONObject("diff");
+					if (change != null && diff != null && diff.has("*")) {
+						setDiff(change, renderDiff(ServerDiffParser.parse(diff.getString("*"), differ)));
+					}
+				}
+			}
+		}
+
+		// the previous users are only needed for the rollback summary, so
+		// their revisions are fetched without content
+		chunks = inChunks(oldrevids, new Chunk<JSONObject>() {
+			@Override
+			public JSONObject fetch(long[] chunk) throws Exception {
+				RequestBuilder request = new RequestBuilder(session);
+				request.addParam("action", "query");
+				request.addParam("prop", "revisions");
+				request.addParam("rvprop", "ids|user");
+				request.addParam("revids", joinRevids(chunk));
+				return parseJSON(request.get()).getJSONObject("query").getJSONObject("pages");
+			}
+		});
+		Map<Long, String> prevUsers = new HashMap<Long, String>();
+		for (JSONObject pages : chunks) {
+			Iterator<?> keys = pages.keys();
+			while (keys.hasNext()) {
+				JSONArray revisions = pages.getJSONObject((String) keys.next()).optJSONArray("revisions");
+				for (int i = 0; revisions != null && i < revisions.length(); i++) {
+					JSONObject revision = revisions.getJSONObject(i);
+					prevUsers.put(revision.getLong("revid"), revision.optString("user"));
+				}
+			}
+		}
+
+		List<Change> local = new ArrayList<Change>();
+		for (Change change : changes) {
+			if (change.getDiff() == null) {
+				local.add(change);
+			} else {
+				change.setPrevUser(prevUsers.get(change.getOldrevid()));
+			}
+		}
+
+		return local;
+	}
+
+	/**
+	 * Reverts a change with a single request, using the cached rollback token.
+	 * If a newer edit to the page has already come in with the recent changes,
+	 * returns TOOLATE without asking the wiki.
+	 */
+	public RevertError rollback(Change change, String reason) throws IOException, Exception {
+		Long latest = getLatestRevid(change.getTitle());
+		if (latest != null && latest > change.getRevid()) {
+			return RevertError.TOOLATE;
+		}
+
+		String summary = makeSummary(change.getUser(), reason, change.getPrevUser());
+
+		JSONObject responseObject = postRollback(change, summary, getRollbackToken(false));
+		if (responseObject.has("error") && responseObject.getJSONObject("error").getString("code").equals("badtoken")) {
+			// the session has changed since the token was fetched
+			responseObject = postRollback(change, summary, getRollbackToken(true));
+		}
+
+		if (responseObject.has("rollback")) {
+			Long revid = responseObject.getJSONObject("rollback").getLong("revid");
+			Long oldrevid = responseObject.getJSONObject("rollback").getLong("old_revid");
+			if (revid == oldrevid) {
+				return RevertError.NOCHANGE;
+			} else {
+				return null;
+			}
+		} else if (responseObject.has("error")) {
+			String code = responseObject.getJSONObject("error").getString("code");
+			if (code.equals("alreadyrolled")) {
+				return RevertError.ALREADYROLLED;
+			} else if (code.equals("onlyauthor")) {
+				return RevertError.ONLYAUTHOR;
+			} else {
+				return RevertError.UNKNOWN;
+			}
+		} else {
+			return RevertError.IOERROR;
+		}
+	}
+
+	private JSONObject postRollback(Change change, String summary, String token) throws IOException,
+			JSONException {
+		RequestBuilder request = new RequestBuilder(session);
+		request.setPriority(RequestScheduler.Priority.HIGH);
+		request.addParam("action", "rollback");
+		request.addParam("title", change.getTitle());
+		request.addParam("user", change.getUser());
+		request.addParam("summary", summary);
+		request.addParam("markbot", false);
+		request.addParam("token", token);
+
+		return parseJSON(request.post());
+	}
+
+	// fetched the first time it's needed, and kept until the wiki rejects it;
+	// if two threads fetch it at once, either one will do
+	private String getRollbackToken(boolean refresh) throws IOException, JSONException {
+		String token = rollbackToken;
+		if (token == null || refresh) {
+			RequestBuilder request = new RequestBuilder(session);
+			request.setPriority(RequestScheduler.Priority.HIGH);
+			request.addParam("action", "query");
+			request.addParam("meta", "tokens");
+			request.addParam("type", "rollback");
+
+			token = parseJSON(request.get()).getJSONObject("query").getJSONObject("tokens")
+					.getString("rollbacktoken");
+			rollbackToken = token;
+		}
+		return token;
+	}
+
+	private void noteLatest(Change change) {
+		synchronized (latestRevids) {
+			Long revid = latestRevids.get(change.getTitle());
+			if (revid == null || revid < change.getRevid()) {
+				latestRevids.put(change.getTitle(), change.getRevid());
+			}
+		}
+	}
+
+	private Long getLatestRevid(String title) {
+		synchronized (latestRevids) {
+			return latestRevids.get(title);
+		}
+	}
+
+	// the newest revid seen for each title, so that rollback() can tell when a
+	// change has been superseded without asking the wiki
+	private static class LatestRevids extends LinkedHashMap<String, Long> {
+		private static final long serialVersionUID = 1L;
+
+		LatestRevids() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_LATEST_REVIDS;
+		}
+	}
+
+	/**
+	 * Receives revisions from getRevisions(long[], RevisionHandler) one at a
+	 * time, as soon as each one has been parsed. The text is null if the
+	 * revision's content is hidden.
+	 */
+	public interface RevisionHandler {
+		void handleRevision(long pageid, long revid, String user, String text);
+	}
+
+	// returns object with {"pageid1":{}, "pageid2":{}, etc.}
+	public JSONObject getRevisions(long[] revids) throws IOException, Exception {
+		List<JSONObject> chunks = inChunks(revids, new Chunk<JSONObject>() {
+			@Override
+			public JSONObject fetch(long[] chunk) throws Exception {
+				RequestBuilder request = makeRevisionsRequest(chunk);
+				JSONObject response = parseJSON(request.get());
+				return response.getJSONObject("query").getJSONObject("pages");
+			}
+		});
+
+		if (chunks.size() == 1) {
+			return chunks.get(0);
+		}
+
+		// a page's revisions can be split between chunks, so join them back
+		// together, oldest first
+		Map<String, List<JSONObject>> revisions = new HashMap<String, List<JSONObject>>();
+		JSONObject pages = new JSONObject();
+		for (JSONObject chunk : chunks) {
+			Iterator<?> keys = chunk.keys();
+			while (keys.hasNext()) {
+				String pageid = (String) keys.next();
+				JSONObject page = chunk.getJSONObject(pageid);
+				if (!pages.has(pageid)) {
+					pages.put(pageid, page);
+					revisions.put(pageid, new ArrayList<JSONObject>());
+				}
+
+				JSONArray array = page.optJSONArray("revisions");
+				for (int i = 0; array != null && i < array.length(); i++) {
+					revisions.get(pageid).add(array.getJSONObject(i));
+				}
+			}
+		}
+
+		for (Map.Entry<String, List<JSONObject>> entry : revisions.entrySet()) {
+			List<JSONObject> list = entry.getValue();
+			Collections.sort(list, new Comparator<JSONObject>() {
+				@Override
+				public int compare(JSONObject a, JSONObject b) {
+					long x = a.optLong("revid"), y = b.optLong("revid");
+					return x < y ? -1 : (x == y ? 0 : 1);
+				}
+			});
+
+			JSONArray array = new JSONArray();
+			for (JSONObject revision : list) {
+				array.put(revision);
+			}
+			pages.getJSONObject(entry.getKey()).put("revisions", array);
+		}
+
+		return pages;
+	}
+
+	/**
+	 * Streaming version of getRevisions(long[]). The response is parsed as it
+	 * is read from the connection, and each revision is passed to the handler
+	 * and then forgotten, so only one revision's text is in memory at a time.
+	 * Large requests are split up and fetched in parallel, but the handler is
+	 * only ever called by one thread at a time. Revisions in the RevisionCache,
+	 * if there is one, are passed to the handler first without being fetched.
+	 */
+	public void getRevisions(long[] revids, RevisionHandler handler) throws IOException {
+		RevisionHandler synchronizedHandler = new SynchronizedRevisionHandler(handler);
+
+		final RevisionCache cache = revisionCache;
+		if (cache != null) {
+			revids = fromCache(cache, revids, synchronizedHandler);
+			if (revids.length == 0) {
+				return;
+			}
+			synchronizedHandler = new CachingRevisionHandler(cache, domain, synchronizedHandler);
+		}
+
+		final RevisionHandler fetchHandler = synchronizedHandler;
+		try {
+			inChunks(revids, new Chunk<Void>() {
+				@Override
+				public Void fetch(long[] chunk) throws Exception {
+					streamRevisions(chunk, fetchHandler);
+					return null;
+				}
+			});
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e.toString());
+		}
+	}
+
+	// hands the cached revisions to the handler, and returns the rest
+	private long[] fromCache(RevisionCache cache, long[] revids, RevisionHandler handler) {
+		long[] missing = new long[revids.length];
+		int count = 0;
+		for (long revid : revids) {
+			RevisionCache.Revision revision = cache.get(domain, revid);
+			if (revision == null) {
+				missing[count++] = revid;
+			} else {
+				handler.handleRevision(revision.pageid, revid, revision.user, revision.text);
+			}
+		}
+		return Arrays.copyOf(missing, count);
+	}
+
+	private void streamRevisions(long[] revids, RevisionHandler handler) throws IOException {
+		RequestBuilder request = makeRevisionsRequest(revids);
+
+		JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(request.getStream(), "UTF-8"));
+		try {
+			// {"query":{"pages":{"pageid":{"revisions":[{...}, ...]}, ...}}}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("query")) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if (reader.nextName().equals("pages")) {
+							readPages(reader, handler);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} finally {
+			reader.close();
+		}
+	}
+
+	// saves each revision in the cache on its way to the handler; hidden ones
+	// aren't saved, as they might be shown again
+	private static class CachingRevisionHandler implements RevisionHandler {
+		private final RevisionCache cache;
+		private final String domain;
+		private final RevisionHandler handler;
+
+		CachingRevisionHandler(RevisionCache cache, String domain, RevisionHandler handler) {
+			this.cache = cache;
+			this.domain = domain;
+			this.handler = handler;
+		}
+
+		@Override
+		public void handleRevision(long pageid, long revid, String user, String text) {
+			if (text != null) {
+				cache.put(domain, revid, pageid, user, text);
+			}
+			handler.handleRevision(pageid, revid, user, text);
+		}
+	}
+
+	private static class SynchronizedRevisionHandler implements RevisionHandler {
+		private final RevisionHandler handler;
+
+		SynchronizedRevisionHandler(RevisionHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public synchronized void handleRevision(long pageid, long revid, String user, String text) {
+			handler.handleRevision(pageid, revid, user, text);
+		}
+	}
+
+	// one request's worth of a larger request
+	private interface Chunk<T> {
+		T fetch(long[] revids) throws Exception;
+	}
+
+	/*
+	 * The API only accepts so many revids per request, so this splits them up
+	 * and runs the requests side by side on fetchPool, returning the results in
+	 * order. Small requests are just run on the calling thread.
+	 */
+	private <T> List<T> inChunks(long[] revids, final Chunk<T> chunk) throws Exception {
+		List<T> results = new ArrayList<T>();
+
+		if (revids.length <= REVISIONS_PER_REQUEST) {
+			results.add(chunk.fetch(revids));
+			return results;
+		}
+
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		for (int start = 0; start < revids.length; start += REVISIONS_PER_REQUEST) {
+			final long[] part = Arrays.copyOfRange(revids, start,
+					Math.min(start + REVISIONS_PER_REQUEST, revids.length));
+			futures.add(fetchPool.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return chunk.fetch(part);
+				}
+			}));
+		}
+
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+
+		return results;
+	}
+
+	private void readPages(JsonStreamReader reader, RevisionHandler handler) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			long pageid = Long.parseLong(reader.nextName());
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("revisions")) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readRevision(reader, pageid, handler);
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+	}
+
+	private void readRevision(JsonStreamReader reader, long pageid, RevisionHandler handler) throws IOException {
+		long revid = 0;
+		String user = null, text = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("revid")) {
+				revid = reader.nextLong();
+			} else if (name.equals("user")) {
+				user = reader.nextString();
+			} else if (name.equals("*")) {
+				text = reader.nextString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		handler.handleRevision(pageid, revid, user, text);
+	}
+
+	private RequestBuilder makeRevisionsRequest(long[] revids) throws UnsupportedEncodingException {
+		RequestBuilder request = new RequestBuilder(session);
+		request.addParam("action", "query");
+		request.addParam("prop", "revisions");
+		request.addParam("rvprop", "content|user|comment|title|ids|sizes|timestamp|flags");
+		request.addParam("revids", joinRevids(revids));
+		return request;
+	}
+
+	private String joinRevids(long[] revids) {
+		StringBuilder revidBuilder = new StringBuilder();
+		for (int i = 0; i < revids.length; i++) {
+			revidBuilder.append(revids[i]);
+			if (i < revids.length - 1) {
+				revidBuilder.append("|");
+			}
+		}
+		return revidBuilder.toString();
+	}
+
+	// the parameters needed to get the next page of a query, or null if this
+	// was the last page; handles both the old and new continuation formats
+	private JSONObject getContinuation(JSONObject response) throws JSONException {
+		if (response.has("continue")) {
+			return response.getJSONObject("continue");
+		}
+
+		JSONObject queryContinue = response.optJSONObject("query-continue");
+		if (queryContinue != null) {
+			Iterator<?> modules = queryContinue.keys();
+			if (modules.hasNext()) {
+				return queryContinue.getJSONObject((String) modules.next());
+			}
+		}
+
+		return null;
+	}
+
+	private LoginError checkIfValidUser(String username) throws IOException, JSONException {
+		RequestBuilder request = new RequestBuilder(session);
+		request.addParam("action", "query");
+		request.addParam("list", "users");
+		request.addParam("usprop", "editcount|groups|rights|blockinfo|registration");
+		request.addParam("ususers", username);
+
+		JSONObject user = parseJSON(request.get()).getJSONObject("query").getJSONArray("users").getJSONObject(0);
+
+		// user name must be valid
+		if (user.has("invalid")) {
+			return LoginError.INVALID;
+		}
+
+		// user must exist
+		if (user.has("missing")) {
+			return LoginError.MISSING;
+		}
+
+		// can't be blocked
+		if (user.has("blockid")) {
+			return LoginError.BLOCKED;
+		}
+
+		// must be rollbacker
+		boolean rollbacker = false;
+		JSONArray rights = user.getJSONArray("rights");
+		for (int i = 0; i < rights.length(); i++) {
+			if (rights.getString(i).equals("rollback")) {
+				rollbacker = true;
+				break;
+			}
+		}
+
+		if (rollbacker == false) {
+			return LoginError.ROLLBACK;
+		}
+
+		return null;
+	}
+
+	private JSONObject parseJSON(String string) throws JSONException {
+		return (JSONObject) new JSONTokener(string).nextValue();
+	}
+
+	private String makeSummary(String user, String reason, String prevUser) {
+		String summaryFmt = "Reverted edit(s) by [[Special:Contributions/%s|%s]] ([[User_talk:%s|talk]])";
+		String summary = String.format(summaryFmt, user, user, user);
+		String myPage = " (using [[User:Jfmantis/WikiPatroller|WikiPatroller]])";
+
+		if (reason.length() > 0) {
+			summary += ": " + reason;
+		} else {
+			summary += " to last revision";
+		}
+
+		// add link to wikipatroller page if there's room in the edit summary
+		// (IPv6 users take up a lot of space)
+		if (summary.length() + myPage.length() < 250) {
+			summary += myPage;
+		}
+
+		return summary;
+	}
+
+	private void setDiff(Change change, DiffText diff) {
+		change.setDiff(diff);
+
+		WordMatcher matcher = wordMatcher;
+		if (matcher != null) {
+			change.setMatches(matcher.match(diff));
+		}
+	}
+
+	// fills in a change's diff and previous user from the diff cache, if
+	// they're there
+	private boolean fromDiffCache(Change change) {
+		DiffCache cache = diffCache;
+		DiffCache.Entry entry = cache == null ? null : cache.get(domain, change.getOldrevid(), change.getRevid());
+		if (entry == null) {
+			return false;
+		}
+		change.setPrevUser(entry.prevUser);
+		setDiff(change, entry.diff);
+		return true;
+	}
+
+	private void toDiffCache(Change change) {
+		DiffCache cache = diffCache;
+		if (cache != null && change.getDiff() != null) {
+			cache.put(domain, change.getOldrevid(), change.getRevid(), change.getDiff(), change.getPrevUser());
+		}
+	}
+
+	DiffText genDiff(String before, String after) {
+		diff_match_patch.DiffList diffs = null;
+		if (tokendiffs) {
+			diffs = WikitextTokens.diff(differ, before, after);
+		}
+		if (diffs == null) {
+			diffs = differ.diff_main(before, after);
+			differ.diff_cleanupSemantic(diffs);
+		}
+
+		return renderDiff(diffs);
+	}
+
+	private DiffText renderDiff(List<diff_match_patch.Diff> diffs) {
+		DiffText.Builder builder = new DiffText.Builder();
+
+		for (int i = 0; i < diffs.size(); i++) {
+			diff_match_patch.Diff d = diffs.get(i);
+
+			if (d.operation == diff_match_patch.Operation.EQUAL) {
+				String string = "";
+				int len = d.text.length();
+
+				if (len < 100) {
+					string = d.text;
+				} else {
+					if (i > 0) {
+						string += d.text.substring(0, 80) + "\n";
+					}
+
+					string += " . . . ";
+
+					if (i < diffs.size() - 1) {
+						string += "\n" + d.text.substring(len - 80, len);
+					}
+				}
+
+				builder.append(string);
+			} else if (d.operation == diff_match_patch.Operation.INSERT) {
+				builder.append(d.text, DiffText.Kind.INSERTED);
+			} else if (d.operation == diff_match_patch.Operation.DELETE) {
+				builder.append(d.text, DiffText.Kind.DELETED);
+			}
+		}
+
+		return builder.build();
+	}
+}
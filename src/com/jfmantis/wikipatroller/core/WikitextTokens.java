@@ -0,0 +1,294 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+
+/**
+ * Diffs wikitext a token at a time instead of a character at a time
+ *
+ * Works like diff_match_patch's line mode: each distinct token is given a
+ * character of its own, the two strings of those characters are diffed, and
+ * the result is turned back into text. A token is a word, a run of spaces, a
+ * single other character, or one of the things wikitext editors change as a
+ * whole: a [[link]], a {{template}}, a <ref>...</ref> or a table cell. Those
+ * only count as one token if they're short and fit on one line, so that an
+ * edit inside an infobox doesn't turn into the whole infobox being replaced.
+ *
+ * As in line mode, the texts are diffed by line first, and only the lines
+ * that changed are tokenized. There are far fewer tokens than characters in
+ * those, so the diff has much less to search, and since edits can only start
+ * and end on token boundaries the result already reads well after one
+ * cleanup pass. Anything replaced is diffed again a word at a time.
+ */
+class WikitextTokens {
+
+	// the longest link, template, ref or cell that is kept as one token
+	private static final int MAX_TOKEN = 300;
+
+	// the character 0 isn't used, as in diff_linesToChars
+	private static final int MAX_TOKENS = 0xFFFF;
+
+	private final List<String> tokens = new ArrayList<String>();
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	// whether links, templates, refs and cells are tokens, or only words
+	private final boolean structural;
+
+	private WikitextTokens(boolean structural) {
+		this.structural = structural;
+		tokens.add("");
+	}
+
+	/**
+	 * Diffs two texts by line, and then the lines that changed by token, with
+	 * one pass of diff_cleanupSemantic on the tokens. Returns null if there
+	 * are too many different tokens to give each a character, in which case
+	 * the texts should be diffed by character.
+	 */
+	static diff_match_patch.DiffList diff(diff_match_patch differ, String before, String after) {
+		// most edits change a small part of a large page, so first take off
+		// the lines at each end that are the same, which is much quicker than
+		// giving each of them a character
+		int prefix = differ.diff_commonPrefix(before, after);
+		prefix = before.lastIndexOf('\n', prefix - 1) + 1;
+
+		int suffix = differ.diff_commonSuffix(before.substring(prefix), after.substring(prefix));
+		int cut = before.indexOf('\n', before.length() - suffix);
+		suffix = cut == -1 ? 0 : before.length() - (cut + 1);
+
+		// no token crosses a line break, so the lines that changed can be
+		// tokenized on their own
+		diff_match_patch.DiffList lines = differ.diff_lines_only(before.substring(prefix, before.length() - suffix),
+				after.substring(prefix, after.length() - suffix));
+		lines.add(new diff_match_patch.Diff(diff_match_patch.Operation.EQUAL, before.substring(before.length()
+				- suffix)));
+
+		diff_match_patch.DiffList diffs = new diff_match_patch.DiffList();
+		add(diffs, diff_match_patch.Operation.EQUAL, before.substring(0, prefix));
+		StringBuilder deleted = new StringBuilder(), inserted = new StringBuilder();
+		for (diff_match_patch.Diff line : lines) {
+			if (line.operation == diff_match_patch.Operation.DELETE) {
+				deleted.append(line.text);
+			} else if (line.operation == diff_match_patch.Operation.INSERT) {
+				inserted.append(line.text);
+			} else {
+				if (deleted.length() > 0 && inserted.length() > 0) {
+					diff_match_patch.DiffList tokens = new WikitextTokens(true).diffTokens(differ, deleted.toString(),
+							inserted.toString());
+					if (tokens == null) {
+						return null;
+					}
+					addReplaced(differ, diffs, tokens);
+				} else {
+					add(diffs, diff_match_patch.Operation.DELETE, deleted.toString());
+					add(diffs, diff_match_patch.Operation.INSERT, inserted.toString());
+				}
+				deleted.setLength(0);
+				inserted.setLength(0);
+				add(diffs, diff_match_patch.Operation.EQUAL, line.text);
+			}
+		}
+		return diffs;
+	}
+
+	/*
+	 * Adds the diffs of some changed lines. Where a link, template, ref or
+	 * cell was replaced by another, it goes back over it a word at a time, so
+	 * that a one-word change to a template shows as that word and not as the
+	 * whole template.
+	 */
+	private static void addReplaced(diff_match_patch differ, diff_match_patch.DiffList diffs,
+			diff_match_patch.DiffList tokens) {
+		for (int i = 0; i < tokens.size(); i++) {
+			diff_match_patch.Diff diff = tokens.get(i);
+			diff_match_patch.Diff next = i + 1 < tokens.size() ? tokens.get(i + 1) : null;
+			if (diff.operation == diff_match_patch.Operation.DELETE && next != null
+					&& next.operation == diff_match_patch.Operation.INSERT) {
+				diff_match_patch.DiffList words = new WikitextTokens(false).diffTokens(differ, diff.text, next.text);
+				if (words != null) {
+					for (diff_match_patch.Diff word : words) {
+						add(diffs, word.operation, word.text);
+					}
+					i++;
+					continue;
+				}
+			}
+			add(diffs, diff.operation, diff.text);
+		}
+	}
+
+	// the diff of two texts by token, turned back into text, or null
+	private diff_match_patch.DiffList diffTokens(diff_match_patch differ, String text1, String text2) {
+		String chars1 = toChars(text1);
+		String chars2 = chars1 == null ? null : toChars(text2);
+		if (chars2 == null) {
+			return null;
+		}
+
+		diff_match_patch.DiffList diffs = differ.diff_main(chars1, chars2, false);
+		differ.diff_cleanupSemantic(diffs);
+
+		for (diff_match_patch.Diff diff : diffs) {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < diff.text.length(); i++) {
+				text.append(tokens.get(diff.text.charAt(i)));
+			}
+			diff.text = text.toString();
+		}
+		return diffs;
+	}
+
+	// adds a diff to the end of the list, joining it to the last one if they
+	// do the same thing
+	private static void add(diff_match_patch.DiffList diffs, diff_match_patch.Operation operation, String text) {
+		if (text.length() == 0) {
+			return;
+		}
+		if (!diffs.isEmpty() && diffs.getLast().operation == operation) {
+			diffs.getLast().text += text;
+		} else {
+			diffs.add(new diff_match_patch.Diff(operation, text));
+		}
+	}
+
+	// the text as one character per token, or null if it runs out of them
+	private String toChars(String text) {
+		StringBuilder chars = new StringBuilder();
+
+		for (int start = 0; start < text.length();) {
+			int end = tokenEnd(text, start);
+			String token = text.substring(start, end);
+			start = end;
+
+			Integer id = ids.get(token);
+			if (id == null) {
+				if (tokens.size() == MAX_TOKENS) {
+					return null;
+				}
+				id = tokens.size();
+				tokens.add(token);
+				ids.put(token, id);
+			}
+			chars.append((char) (int) id);
+		}
+
+		return chars.toString();
+	}
+
+	// where the token starting at i ends
+	private int tokenEnd(String text, int i) {
+		int end = -1;
+		if (!structural) {
+			// only words
+		} else if (text.startsWith("[[", i)) {
+			end = closing(text, i, "[[", "]]");
+		} else if (text.startsWith("{{", i)) {
+			end = closing(text, i, "{{", "}}");
+		} else if (text.startsWith("<ref", i)) {
+			end = refEnd(text, i);
+		} else if (isCellStart(text, i)) {
+			end = cellEnd(text, i);
+		}
+		if (end != -1) {
+			return end;
+		}
+
+		char c = text.charAt(i);
+		int j = i + 1;
+		if (Character.isLetterOrDigit(c)) {
+			while (j < text.length() && Character.isLetterOrDigit(text.charAt(j))) {
+				j++;
+			}
+		} else if (c == ' ' || c == '\t') {
+			while (j < text.length() && (text.charAt(j) == ' ' || text.charAt(j) == '\t')) {
+				j++;
+			}
+		}
+		return j;
+	}
+
+	// the end of a nested [[...]] or {{...}} on one line, or -1
+	private static int closing(String text, int i, String open, String close) {
+		int depth = 0;
+		int limit = Math.min(text.length(), i + MAX_TOKEN);
+		for (int j = i; j < limit; j++) {
+			char c = text.charAt(j);
+			if (c == '\n') {
+				return -1;
+			} else if (text.startsWith(open, j)) {
+				depth++;
+				j++;
+			} else if (text.startsWith(close, j)) {
+				depth--;
+				j++;
+				if (depth == 0) {
+					return j + 1 > limit ? -1 : j + 1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	// the end of <ref ... /> or <ref ...>...</ref>, or -1
+	private static int refEnd(String text, int i) {
+		int after = i + 4;
+		if (after >= text.length()) {
+			return -1;
+		}
+		char c = text.charAt(after);
+		if (c != '>' && c != ' ' && c != '/') {
+			// something like <references/>
+			return -1;
+		}
+
+		int limit = Math.min(text.length(), i + MAX_TOKEN);
+		int tagEnd = text.indexOf('>', after);
+		if (tagEnd == -1 || tagEnd >= limit) {
+			return -1;
+		}
+		if (text.charAt(tagEnd - 1) == '/') {
+			return tagEnd + 1;
+		}
+
+		int close = text.indexOf("</ref>", tagEnd);
+		if (close == -1 || close + 6 > limit || text.lastIndexOf('\n', close) > i) {
+			return -1;
+		}
+		return close + 6;
+	}
+
+	// a table cell starts with | or ! at the start of a line, or with || or !!
+	// on a line that starts with one of those
+	private static boolean isCellStart(String text, int i) {
+		char c = text.charAt(i);
+		if (c != '|' && c != '!') {
+			return false;
+		}
+		if (i == 0 || text.charAt(i - 1) == '\n') {
+			// but not the |- and |} that separate rows and end the table
+			return !(i + 1 < text.length() && (text.charAt(i + 1) == '-' || text.charAt(i + 1) == '}'));
+		}
+		if (!text.startsWith("||", i) && !text.startsWith("!!", i)) {
+			return false;
+		}
+		char first = text.charAt(text.lastIndexOf('\n', i - 1) + 1);
+		return first == '|' || first == '!';
+	}
+
+	// a cell runs up to the next cell on its line, or the end of the line
+	private static int cellEnd(String text, int i) {
+		int limit = Math.min(text.length(), i + MAX_TOKEN);
+		int j = text.startsWith("||", i) || text.startsWith("!!", i) ? i + 2 : i + 1;
+		for (; j < limit; j++) {
+			char c = text.charAt(j);
+			if (c == '\n' || text.startsWith("||", j) || text.startsWith("!!", j)) {
+				return j;
+			}
+		}
+		return j == text.length() ? j : -1;
+	}
+}
@@ -0,0 +1,301 @@
+package com.jfmantis.wikipatroller.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds words from a list (usually ones vandals like) in the text a change
+ * inserted
+ *
+ * The words are compiled once into an Aho-Corasick automaton, so each inserted
+ * character is looked at once however many words there are. Matching ignores
+ * case. A word only matches as a whole word, unless it starts or ends with *,
+ * which lets it match inside a longer word on that side ("*hah*" matches
+ * "bwahahaha").
+ *
+ * Lines of the form /regex/ are regular expressions instead; they can't be
+ * compiled into the automaton, so they're joined into one pattern and run over
+ * the inserted text separately.
+ */
+public class WordMatcher {
+
+	public static class Match {
+		// where the match is in the DiffText
+		public final int start, end;
+		public final String word;
+
+		Match(int start, int end, String word) {
+			this.start = start;
+			this.end = end;
+			this.word = word;
+		}
+	}
+
+	// the automaton, flattened into arrays; node 0 is the root
+
+	// the children of node n are labels/targets[childStart[n]] up to
+	// childStart[n + 1], sorted by label
+	private final int[] childStart;
+	private final char[] labels;
+	private final int[] targets;
+
+	// the node for the longest proper suffix that is also in the trie
+	private final int[] fail;
+
+	// the word that ends at each node, or -1
+	private final int[] output;
+
+	// the next node along the fail links that has an output, or 0
+	private final int[] dictionary;
+
+	private final String[] words;
+	private final boolean[] openStart, openEnd;
+
+	private final Pattern regex;
+
+	private static final Comparator<Match> BY_START = new Comparator<Match>() {
+		@Override
+		public int compare(Match a, Match b) {
+			return a.start < b.start ? -1 : (a.start == b.start ? 0 : 1);
+		}
+	};
+
+	private WordMatcher(List<String> wordList, List<Boolean> starts, List<Boolean> ends, Pattern regex) {
+		this.regex = regex;
+
+		words = wordList.toArray(new String[wordList.size()]);
+		openStart = new boolean[words.length];
+		openEnd = new boolean[words.length];
+		for (int i = 0; i < words.length; i++) {
+			openStart[i] = starts.get(i);
+			openEnd[i] = ends.get(i);
+		}
+
+		// build the trie
+		List<TreeMap<Character, Integer>> children = new ArrayList<TreeMap<Character, Integer>>();
+		List<Integer> outputs = new ArrayList<Integer>();
+		children.add(new TreeMap<Character, Integer>());
+		outputs.add(-1);
+
+		for (int w = 0; w < words.length; w++) {
+			int node = 0;
+			for (int i = 0; i < words[w].length(); i++) {
+				char c = words[w].charAt(i);
+				Integer next = children.get(node).get(c);
+				if (next == null) {
+					next = children.size();
+					children.get(node).put(c, next);
+					children.add(new TreeMap<Character, Integer>());
+					outputs.add(-1);
+				}
+				node = next;
+			}
+			if (outputs.get(node) == -1) {
+				outputs.set(node, w);
+			}
+		}
+
+		// flatten it
+		int nodes = children.size();
+		childStart = new int[nodes + 1];
+		labels = new char[nodes - 1];
+		targets = new int[nodes - 1];
+		output = new int[nodes];
+
+		int edge = 0;
+		for (int n = 0; n < nodes; n++) {
+			childStart[n] = edge;
+			for (Map.Entry<Character, Integer> entry : children.get(n).entrySet()) {
+				labels[edge] = entry.getKey();
+				targets[edge] = entry.getValue();
+				edge++;
+			}
+			output[n] = outputs.get(n);
+		}
+		childStart[nodes] = edge;
+
+		// fail and dictionary links, breadth first so that shorter suffixes
+		// are done first
+		fail = new int[nodes];
+		dictionary = new int[nodes];
+
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int e = childStart[0]; e < childStart[1]; e++) {
+			queue.add(targets[e]);
+		}
+		while (!queue.isEmpty()) {
+			int node = queue.removeFirst();
+			for (int e = childStart[node]; e < childStart[node + 1]; e++) {
+				int child = targets[e];
+				char c = labels[e];
+
+				int f = fail[node];
+				while (f != 0 && child(f, c) == -1) {
+					f = fail[f];
+				}
+				int next = child(f, c);
+				fail[child] = next == -1 ? 0 : next;
+				dictionary[child] = output[fail[child]] != -1 ? fail[child] : dictionary[fail[child]];
+
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Compiles a list of words and /regexes/. Blank entries and ones starting
+	 * with # are ignored.
+	 */
+	public static WordMatcher compile(List<String> entries) {
+		List<String> words = new ArrayList<String>();
+		List<Boolean> starts = new ArrayList<Boolean>();
+		List<Boolean> ends = new ArrayList<Boolean>();
+		StringBuilder regex = new StringBuilder();
+
+		for (String entry : entries) {
+			entry = entry.trim();
+			if (entry.length() == 0 || entry.startsWith("#")) {
+				continue;
+			}
+
+			if (entry.length() > 2 && entry.startsWith("/") && entry.endsWith("/")) {
+				String expression = entry.substring(1, entry.length() - 1);
+				try {
+					Pattern.compile(expression);
+				} catch (PatternSyntaxException e) {
+					// skip it rather than lose the whole list
+					continue;
+				}
+				if (regex.length() > 0) {
+					regex.append('|');
+				}
+				regex.append("(?:").append(expression).append(')');
+				continue;
+			}
+
+			boolean start = entry.startsWith("*");
+			boolean end = entry.endsWith("*");
+			String word = entry.substring(start ? 1 : 0, Math.max(start ? 1 : 0, entry.length() - (end ? 1 : 0)));
+			if (word.length() > 0) {
+				words.add(word.toLowerCase(Locale.ROOT));
+				starts.add(start);
+				ends.add(end);
+			}
+		}
+
+		Pattern pattern = null;
+		if (regex.length() > 0) {
+			pattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+		}
+
+		return new WordMatcher(words, starts, ends, pattern);
+	}
+
+	// one entry per line
+	public static WordMatcher load(Reader in) throws IOException {
+		List<String> entries = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(in);
+		try {
+			for (String line; (line = reader.readLine()) != null;) {
+				entries.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return compile(entries);
+	}
+
+	public int size() {
+		return words.length;
+	}
+
+	/**
+	 * Finds the words in the inserted parts of a diff, in the order they
+	 * appear. Returns an empty list if there are none.
+	 */
+	public List<Match> match(DiffText diff) {
+		List<Match> matches = null;
+
+		for (int s = 0; s < diff.getSpanCount(); s++) {
+			if (diff.getSpanKind(s) != DiffText.Kind.INSERTED) {
+				continue;
+			}
+			int spanStart = diff.getSpanStart(s), spanEnd = diff.getSpanEnd(s);
+
+			int node = 0;
+			for (int i = spanStart; i < spanEnd; i++) {
+				char c = Character.toLowerCase(diff.charAt(i));
+
+				int next;
+				while ((next = child(node, c)) == -1 && node != 0) {
+					node = fail[node];
+				}
+				node = next == -1 ? 0 : next;
+
+				for (int n = output[node] != -1 ? node : dictionary[node]; n != 0; n = dictionary[n]) {
+					int w = output[n];
+					int start = i + 1 - words[w].length();
+					if ((openStart[w] || isBoundary(diff, start - 1)) && (openEnd[w] || isBoundary(diff, i + 1))) {
+						if (matches == null) {
+							matches = new ArrayList<Match>();
+						}
+						matches.add(new Match(start, i + 1, words[w]));
+					}
+				}
+			}
+
+			if (regex != null) {
+				Matcher m = regex.matcher(diff);
+				m.region(spanStart, spanEnd);
+				while (m.find()) {
+					if (m.end() > m.start()) {
+						if (matches == null) {
+							matches = new ArrayList<Match>();
+						}
+						matches.add(new Match(m.start(), m.end(), m.group()));
+					}
+				}
+			}
+		}
+
+		if (matches == null) {
+			return Collections.emptyList();
+		}
+		if (regex != null) {
+			Collections.sort(matches, BY_START);
+		}
+		return matches;
+	}
+
+	private static boolean isBoundary(CharSequence text, int i) {
+		return i < 0 || i >= text.length() || !Character.isLetterOrDigit(text.charAt(i));
+	}
+
+	// binary search of a node's sorted children
+	private int child(int node, char c) {
+		int low = childStart[node], high = childStart[node + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (labels[mid] < c) {
+				low = mid + 1;
+			} else if (labels[mid] > c) {
+				high = mid - 1;
+			} else {
+				return targets[mid];
+			}
+		}
+		return -1;
+	}
+}
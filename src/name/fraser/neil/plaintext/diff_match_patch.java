@@ -25,12 +25,20 @@ import java.net.URLEncoder;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -59,6 +67,29 @@ public class diff_match_patch implements Serializable {
 	 * Number of seconds to map a diff before giving up (0 for infinity).
 	 */
 	public float Diff_Timeout = 1.0f;
+	/**
+	 * If true, diff_bisect() and everything it recurses into work on index
+	 * ranges of the two texts instead of substrings, and take their V arrays
+	 * from a shared pool instead of allocating new ones on every call (see
+	 * diff_trimScratch()). The result is a valid diff, but the subproblems
+	 * don't get the half-match speedup, so it can differ slightly from the
+	 * default mode.
+	 */
+	public boolean Diff_RangeBisect = false;
+	/**
+	 * If set, whenever diff_main() splits a problem in two and the second half
+	 * has at least Diff_ParallelThreshold characters between the two texts,
+	 * that half is handed to this executor while the calling thread works on
+	 * the first. If the executor turns it down, or hasn't started it by the
+	 * time the first half is done, the calling thread diffs it as well. The
+	 * result is the same as without it. Not serialized.
+	 */
+	public transient Executor Diff_Executor = null;
+	/**
+	 * Smallest half, in characters of both texts, that is given to
+	 * Diff_Executor.
+	 */
+	public int Diff_ParallelThreshold = 10000;
 	/**
 	 * Cost of an empty edit operation in terms of edit characters.
 	 */
@@ -97,19 +128,216 @@ public class diff_match_patch implements Serializable {
 	protected static class LinesToCharsResult {
 		protected String chars1;
 		protected String chars2;
-		protected List<String> lineArray;
-
-		protected LinesToCharsResult(String chars1, String chars2, List<String> lineArray) {
+		protected String text1;
+		protected String text2;
+		// Where each line of text1 and text2 starts, followed by the length of
+		// the text, so that line i is text.substring(starts[i], starts[i + 1]).
+		protected int[] lineStarts1;
+		protected int[] lineStarts2;
+		// The id of each line, the same in both texts for the same line.
+		protected int[] ids1;
+		protected int[] ids2;
+
+		protected LinesToCharsResult(String chars1, String chars2, String text1, String text2, int[] lineStarts1,
+				int[] lineStarts2, int[] ids1, int[] ids2) {
 			this.chars1 = chars1;
 			this.chars2 = chars2;
-			this.lineArray = lineArray;
+			this.text1 = text1;
+			this.text2 = text2;
+			this.lineStarts1 = lineStarts1;
+			this.lineStarts2 = lineStarts2;
+			this.ids1 = ids1;
+			this.ids2 = ids2;
+		}
+	}
+
+	/**
+	 * Internal class for the range diff functions: one of the two texts as
+	 * the symbols they compare, with the text each range of them stands for.
+	 * Usually each symbol is one character of the text, read from the string
+	 * itself, but it can be one line, given by an int id.
+	 */
+	private static class Symbols {
+		// The id of each line, or null if each symbol is one character.
+		final int[] symbols;
+		final String text;
+		// Where the text of each symbol starts, followed by the length of the
+		// text, or null if each symbol is one character.
+		final int[] starts;
+
+		Symbols(String text) {
+			this.symbols = null;
+			this.text = text;
+			this.starts = null;
+		}
+
+		Symbols(int[] symbols, String text, int[] starts) {
+			this.symbols = symbols;
+			this.text = text;
+			this.starts = starts;
+		}
+
+		String substring(int start, int end) {
+			return starts == null ? text.substring(start, end) : text.substring(starts[start], starts[end]);
+		}
+
+		/**
+		 * Number of symbols that a[aStart...] and b[bStart...] have in common
+		 * at the start, up to n. The two must be the same kind.
+		 */
+		static int commonPrefix(Symbols a, int aStart, Symbols b, int bStart, int n) {
+			int i = 0;
+			if (a.symbols == null) {
+				String text1 = a.text;
+				String text2 = b.text;
+				while (i < n && text1.charAt(aStart + i) == text2.charAt(bStart + i)) {
+					i++;
+				}
+			} else {
+				int[] symbols1 = a.symbols;
+				int[] symbols2 = b.symbols;
+				while (i < n && symbols1[aStart + i] == symbols2[bStart + i]) {
+					i++;
+				}
+			}
+			return i;
+		}
+
+		/**
+		 * Number of symbols that a[...aEnd) and b[...bEnd) have in common at
+		 * the end, up to n. The two must be the same kind.
+		 */
+		static int commonSuffix(Symbols a, int aEnd, Symbols b, int bEnd, int n) {
+			int i = 0;
+			if (a.symbols == null) {
+				String text1 = a.text;
+				String text2 = b.text;
+				while (i < n && text1.charAt(aEnd - i - 1) == text2.charAt(bEnd - i - 1)) {
+					i++;
+				}
+			} else {
+				int[] symbols1 = a.symbols;
+				int[] symbols2 = b.symbols;
+				while (i < n && symbols1[aEnd - i - 1] == symbols2[bEnd - i - 1]) {
+					i++;
+				}
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * Internal class for diff_linesToChars(): gives each distinct line of the
+	 * two texts an int id. Lines are hashed and compared where they are in
+	 * the texts, so no line is copied, and the ids are found in an
+	 * open-addressing table of ints instead of a HashMap.
+	 */
+	private static class LineTable {
+		// Which of the texts a line has been seen in.
+		static final byte IN_TEXT1 = 1;
+		static final byte IN_TEXT2 = 2;
+
+		// Id + 1 of the line in each slot, or 0 if it's empty; linear probing.
+		private final int[] slots;
+		private int size = 0;
+
+		// Where the first copy of each line is, its hash, and which texts
+		// it's in, by id.
+		private final char[][] texts;
+		private final int[] starts;
+		private final int[] ends;
+		private final int[] hashes;
+		private final byte[] seen;
+
+		/**
+		 * @param maxLines
+		 *            Lines in both texts together, which no number of distinct
+		 *            lines can exceed, so the table never has to grow.
+		 */
+		LineTable(int maxLines) {
+			// At most half full.
+			slots = new int[Integer.highestOneBit(Math.max(maxLines, 4)) << 2];
+			texts = new char[maxLines][];
+			starts = new int[maxLines];
+			ends = new int[maxLines];
+			hashes = new int[maxLines];
+			seen = new byte[maxLines];
+		}
+
+		/**
+		 * The id of each line of a text, adding the lines not seen before.
+		 */
+		int[] intern(String text, int[] lineStarts, byte flag) {
+			char[] chars = text.toCharArray();
+			int mask = slots.length - 1;
+			int[] ids = new int[lineStarts.length - 1];
+			for (int i = 0; i < ids.length; i++) {
+				int start = lineStarts[i];
+				int end = lineStarts[i + 1];
+				// String.hashCode(), four characters at a time so that the
+				// multiplications don't all wait on each other
+				int hash = 0;
+				int j = start;
+				for (; j + 4 <= end; j += 4) {
+					hash = 923521 * hash + 29791 * chars[j] + 961 * chars[j + 1] + 31 * chars[j + 2] + chars[j + 3];
+				}
+				for (; j < end; j++) {
+					hash = 31 * hash + chars[j];
+				}
+
+				int slot = (hash ^ (hash >>> 16)) & mask;
+				int id;
+				while (true) {
+					id = slots[slot] - 1;
+					if (id == -1) {
+						id = size++;
+						texts[id] = chars;
+						starts[id] = start;
+						ends[id] = end;
+						hashes[id] = hash;
+						slots[slot] = id + 1;
+						break;
+					}
+					if (hashes[id] == hash && matches(id, chars, start, end)) {
+						break;
+					}
+					slot = (slot + 1) & mask;
+				}
+				seen[id] |= flag;
+				ids[i] = id;
+			}
+			return ids;
+		}
+
+		/**
+		 * Whether line id is the same as chars[start, end).
+		 */
+		private boolean matches(int id, char[] chars, int start, int end) {
+			if (ends[id] - starts[id] != end - start) {
+				return false;
+			}
+			char[] line = texts[id];
+			for (int i = starts[id], j = start; j < end; i++, j++) {
+				if (line[i] != chars[j]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		int size() {
+			return size;
+		}
+
+		byte seen(int id) {
+			return seen[id];
 		}
 	}
 
 	// DIFF FUNCTIONS
 
 	/**
-	 * The data structure representing a diff is a Linked list of Diff objects:
+	 * The data structure representing a diff is a DiffList of Diff objects:
 	 * {Diff(Operation.DELETE, "Hello"), Diff(Operation.INSERT, "Goodbye"),
 	 * Diff(Operation.EQUAL, " world.")} which means: delete "Hello", add
 	 * "Goodbye" and keep " world."
@@ -127,9 +355,9 @@ public class diff_match_patch implements Serializable {
 	 *            Old string to be diffed.
 	 * @param text2
 	 *            New string to be diffed.
-	 * @return Linked List of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	public LinkedList<Diff> diff_main(String text1, String text2) {
+	public DiffList diff_main(String text1, String text2) {
 		return diff_main(text1, text2, true);
 	}
 
@@ -144,9 +372,9 @@ public class diff_match_patch implements Serializable {
 	 *            Speedup flag. If false, then don't run a line-level diff first
 	 *            to identify the changed areas. If true, then run a faster
 	 *            slightly less optimal diff.
-	 * @return Linked List of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	public LinkedList<Diff> diff_main(String text1, String text2, boolean checklines) {
+	public DiffList diff_main(String text1, String text2, boolean checklines) {
 		// Set a deadline by which time the diff must be complete.
 		long deadline;
 		if (Diff_Timeout <= 0) {
@@ -172,18 +400,18 @@ public class diff_match_patch implements Serializable {
 	 * @param deadline
 	 *            Time when the diff should be complete by. Used internally for
 	 *            recursive calls. Users should set DiffTimeout instead.
-	 * @return Linked List of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	private LinkedList<Diff> diff_main(String text1, String text2, boolean checklines, long deadline) {
+	private DiffList diff_main(String text1, String text2, boolean checklines, long deadline) {
 		// Check for null inputs.
 		if (text1 == null || text2 == null) {
 			throw new IllegalArgumentException("Null inputs. (diff_main)");
 		}
 
 		// Check for equality (speedup).
-		LinkedList<Diff> diffs;
+		DiffList diffs;
 		if (text1.equals(text2)) {
-			diffs = new LinkedList<Diff>();
+			diffs = new DiffList();
 			if (text1.length() != 0) {
 				diffs.add(new Diff(Operation.EQUAL, text1));
 			}
@@ -231,10 +459,10 @@ public class diff_match_patch implements Serializable {
 	 *            slightly less optimal diff.
 	 * @param deadline
 	 *            Time when the diff should be complete by.
-	 * @return Linked List of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	private LinkedList<Diff> diff_compute(String text1, String text2, boolean checklines, long deadline) {
-		LinkedList<Diff> diffs = new LinkedList<Diff>();
+	private DiffList diff_compute(String text1, String text2, boolean checklines, long deadline) {
+		DiffList diffs = new DiffList();
 
 		if (text1.length() == 0) {
 			// Just add some text (speedup).
@@ -278,8 +506,10 @@ public class diff_match_patch implements Serializable {
 			String text2_b = hm[3];
 			String mid_common = hm[4];
 			// Send both pairs off for separate processing.
-			LinkedList<Diff> diffs_a = diff_main(text1_a, text2_a, checklines, deadline);
-			LinkedList<Diff> diffs_b = diff_main(text1_b, text2_b, checklines, deadline);
+			FutureTask<DiffList> task_b = diff_fork(text1_b, text2_b, checklines, deadline);
+			DiffList diffs_a = diff_main(text1_a, text2_a, checklines, deadline);
+			DiffList diffs_b = task_b == null ? diff_main(text1_b, text2_b, checklines, deadline)
+					: diff_join(task_b);
 			// Merge the results.
 			diffs = diffs_a;
 			diffs.add(new Diff(Operation.EQUAL, mid_common));
@@ -294,11 +524,10 @@ public class diff_match_patch implements Serializable {
 		return diff_bisect(text1, text2, deadline);
 	}
 
-	public LinkedList<Diff> diff_lines_only(String text1, String text2) {
-		final LinesToCharsResult lines = diff_linesToChars(text1, text2);
-		final LinkedList<Diff> diffs = diff_main(lines.chars1, lines.chars2);
-		diff_charsToLines(diffs, lines.lineArray);
-		return diffs;
+	public DiffList diff_lines_only(String text1, String text2) {
+		long deadline = Diff_Timeout <= 0 ? Long.MAX_VALUE : System.currentTimeMillis()
+				+ (long) (Diff_Timeout * 1000);
+		return diff_linesMain(diff_linesToChars(text1, text2), true, deadline);
 	}
 
 	/**
@@ -311,19 +540,12 @@ public class diff_match_patch implements Serializable {
 	 *            New string to be diffed.
 	 * @param deadline
 	 *            Time when the diff should be complete by.
-	 * @return Linked List of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	private LinkedList<Diff> diff_lineMode(String text1, String text2, long deadline) {
-		// Scan the text on a line-by-line basis first.
-		LinesToCharsResult b = diff_linesToChars(text1, text2);
-		text1 = b.chars1;
-		text2 = b.chars2;
-		List<String> linearray = b.lineArray;
-
-		LinkedList<Diff> diffs = diff_main(text1, text2, false, deadline);
-
-		// Convert the diff back to original text.
-		diff_charsToLines(diffs, linearray);
+	protected DiffList diff_lineMode(String text1, String text2, long deadline) {
+		// Scan the text on a line-by-line basis first, and convert the diff
+		// back to original text.
+		DiffList diffs = diff_linesMain(diff_linesToChars(text1, text2), false, deadline);
 		// Eliminate freak matches (e.g. blank lines)
 		diff_cleanupSemantic(diffs);
 
@@ -334,7 +556,7 @@ public class diff_match_patch implements Serializable {
 		int count_insert = 0;
 		String text_delete = "";
 		String text_insert = "";
-		ListIterator<Diff> pointer = diffs.listIterator();
+		DiffCursor pointer = new DiffCursor(diffs);
 		Diff thisDiff = pointer.next();
 		while (thisDiff != null) {
 			switch (thisDiff.operation) {
@@ -367,6 +589,7 @@ public class diff_match_patch implements Serializable {
 			}
 			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
+		pointer.finish();
 		diffs.removeLast(); // Remove the dummy entry at the end.
 
 		return diffs;
@@ -383,9 +606,16 @@ public class diff_match_patch implements Serializable {
 	 *            New string to be diffed.
 	 * @param deadline
 	 *            Time at which to bail if not yet complete.
-	 * @return LinkedList of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	protected LinkedList<Diff> diff_bisect(String text1, String text2, long deadline) {
+	protected DiffList diff_bisect(String text1, String text2, long deadline) {
+		if (Diff_RangeBisect) {
+			DiffList diffs = new DiffList();
+			diff_bisectRange(new Symbols(text1), 0, text1.length(), new Symbols(text2), 0, text2.length(), deadline,
+					diffs);
+			return diffs;
+		}
+
 		// Cache the text lengths to prevent multiple calls.
 		int text1_length = text1.length();
 		int text2_length = text2.length();
@@ -489,7 +719,7 @@ public class diff_match_patch implements Serializable {
 		}
 		// Diff took too long and hit the deadline or
 		// number of diffs equals number of characters, no commonality at all.
-		LinkedList<Diff> diffs = new LinkedList<Diff>();
+		DiffList diffs = new DiffList();
 		diffs.add(new Diff(Operation.DELETE, text1));
 		diffs.add(new Diff(Operation.INSERT, text2));
 		return diffs;
@@ -509,86 +739,556 @@ public class diff_match_patch implements Serializable {
 	 *            Index of split point in text2.
 	 * @param deadline
 	 *            Time at which to bail if not yet complete.
-	 * @return LinkedList of Diff objects.
+	 * @return DiffList of Diff objects.
 	 */
-	private LinkedList<Diff> diff_bisectSplit(String text1, String text2, int x, int y, long deadline) {
+	private DiffList diff_bisectSplit(String text1, String text2, int x, int y, long deadline) {
 		String text1a = text1.substring(0, x);
 		String text2a = text2.substring(0, y);
 		String text1b = text1.substring(x);
 		String text2b = text2.substring(y);
 
-		// Compute both diffs serially.
-		LinkedList<Diff> diffs = diff_main(text1a, text2a, false, deadline);
-		LinkedList<Diff> diffsb = diff_main(text1b, text2b, false, deadline);
+		// Compute both diffs, the second on Diff_Executor if it's big enough.
+		FutureTask<DiffList> taskb = diff_fork(text1b, text2b, false, deadline);
+		DiffList diffs = diff_main(text1a, text2a, false, deadline);
+		DiffList diffsb = taskb == null ? diff_main(text1b, text2b, false, deadline) : diff_join(taskb);
 
 		diffs.addAll(diffsb);
 		return diffs;
 	}
 
 	/**
-	 * Split two texts into a list of strings. Reduce the texts to a string of
-	 * hashes where each Unicode character represents one line.
+	 * Start diff_main() on Diff_Executor, if there is one and the problem is
+	 * big enough to be worth it.
+	 * 
+	 * @param text1
+	 *            Old string to be diffed.
+	 * @param text2
+	 *            New string to be diffed.
+	 * @param checklines
+	 *            Speedup flag, as for diff_main().
+	 * @param deadline
+	 *            Time at which to bail if not yet complete.
+	 * @return The task to pass to diff_join(), or null if the caller should
+	 *         diff the texts itself.
+	 */
+	private FutureTask<DiffList> diff_fork(final String text1, final String text2, final boolean checklines,
+			final long deadline) {
+		Executor executor = Diff_Executor;
+		if (executor == null || text1.length() + text2.length() < Diff_ParallelThreshold) {
+			return null;
+		}
+		FutureTask<DiffList> task = new FutureTask<DiffList>(new Callable<DiffList>() {
+			@Override
+			public DiffList call() {
+				return diff_main(text1, text2, checklines, deadline);
+			}
+		});
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+		return task;
+	}
+
+	/**
+	 * Wait for a diff started by diff_fork(). If no thread has picked it up
+	 * yet, it's run on this one, so a task never waits on one that is still
+	 * queued behind it and a full executor can't deadlock.
+	 * 
+	 * @param task
+	 *            Task returned by diff_fork().
+	 * @return DiffList of Diff objects.
+	 */
+	private DiffList diff_join(FutureTask<DiffList> task) {
+		// does nothing if another thread has started it
+		task.run();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					// the other thread is already working on it, and will stop
+					// at the deadline at the latest
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Range version of diff_bisectSplit(): diff both halves of a split and
+	 * append them to diffs, the second on Diff_Executor if it's big enough.
+	 * 
+	 * @param text1
+	 *            Old text.
+	 * @param start1
+	 *            Start of the range in text1.
+	 * @param x
+	 *            Index of split point in text1.
+	 * @param end1
+	 *            End of the range in text1 (exclusive).
+	 * @param text2
+	 *            New text.
+	 * @param start2
+	 *            Start of the range in text2.
+	 * @param y
+	 *            Index of split point in text2.
+	 * @param end2
+	 *            End of the range in text2 (exclusive).
+	 * @param deadline
+	 *            Time at which to bail if not yet complete.
+	 * @param diffs
+	 *            DiffList to append to.
+	 */
+	private void diff_bisectSplitRange(final Symbols text1, int start1, final int x, final int end1,
+			final Symbols text2, int start2, final int y, final int end2, final long deadline, DiffList diffs) {
+		Executor executor = Diff_Executor;
+		FutureTask<DiffList> task = null;
+		if (executor != null && (end1 - x) + (end2 - y) >= Diff_ParallelThreshold) {
+			task = new FutureTask<DiffList>(new Callable<DiffList>() {
+				@Override
+				public DiffList call() {
+					DiffList diffsb = new DiffList();
+					diff_mainRange(text1, x, end1, text2, y, end2, deadline, diffsb);
+					return diffsb;
+				}
+			});
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				task = null;
+			}
+		}
+
+		diff_mainRange(text1, start1, x, text2, start2, y, deadline, diffs);
+		if (task == null) {
+			diff_mainRange(text1, x, end1, text2, y, end2, deadline, diffs);
+		} else {
+			diffs.addAll(diff_join(task));
+		}
+	}
+
+	/**
+	 * Pairs of V arrays that no diff_bisectRange() call is using. A call
+	 * takes one and puts it back before it recurses, so there are only ever
+	 * as many as there were calls running at once. A pair too small for a
+	 * call is replaced with a bigger one, so they grow to the largest problem
+	 * seen, until diff_trimScratch() lets them go.
+	 */
+	private static final ArrayList<int[][]> bisectScratch = new ArrayList<int[][]>();
+
+	/**
+	 * Take a pair of V arrays of at least the given length from the pool.
+	 */
+	private static int[][] diff_takeScratch(int length) {
+		int[][] scratch = null;
+		synchronized (bisectScratch) {
+			if (!bisectScratch.isEmpty()) {
+				scratch = bisectScratch.remove(bisectScratch.size() - 1);
+			}
+		}
+		if (scratch == null || scratch[0].length < length) {
+			scratch = new int[][] { new int[length], new int[length] };
+		}
+		return scratch;
+	}
+
+	/**
+	 * Put a pair taken by diff_takeScratch() back in the pool.
+	 */
+	private static void diff_releaseScratch(int[][] scratch) {
+		synchronized (bisectScratch) {
+			bisectScratch.add(scratch);
+		}
+	}
+
+	/**
+	 * Let go of the V arrays kept for Diff_RangeBisect, which are as big as
+	 * the largest diff since the last call; for when memory is short or no
+	 * more diffs are expected for a while. Pairs in use are kept by the calls
+	 * using them, and come back to the pool when they finish.
+	 */
+	public static void diff_trimScratch() {
+		synchronized (bisectScratch) {
+			bisectScratch.clear();
+		}
+	}
+
+	/**
+	 * Range version of diff_main(): diff text1[start1, end1) against
+	 * text2[start2, end2) and append the result to diffs. Only the Diff
+	 * objects themselves allocate, once the V arrays have grown to fit.
+	 * 
+	 * @param text1
+	 *            Old text.
+	 * @param start1
+	 *            Start of the range in text1.
+	 * @param end1
+	 *            End of the range in text1 (exclusive).
+	 * @param text2
+	 *            New text.
+	 * @param start2
+	 *            Start of the range in text2.
+	 * @param end2
+	 *            End of the range in text2 (exclusive).
+	 * @param deadline
+	 *            Time at which to bail if not yet complete.
+	 * @param diffs
+	 *            DiffList to append to.
+	 */
+	private void diff_mainRange(Symbols text1, int start1, int end1, Symbols text2, int start2, int end2,
+			long deadline, DiffList diffs) {
+		// Trim off common prefix (speedup).
+		int prefix = Symbols.commonPrefix(text1, start1, text2, start2, Math.min(end1 - start1, end2 - start2));
+		diff_addRange(diffs, Operation.EQUAL, text1, start1, start1 + prefix);
+		start1 += prefix;
+		start2 += prefix;
+
+		// Trim off common suffix (speedup).
+		int suffix = Symbols.commonSuffix(text1, end1, text2, end2, Math.min(end1 - start1, end2 - start2));
+		end1 -= suffix;
+		end2 -= suffix;
+
+		// Compute the diff on the middle block.
+		int length1 = end1 - start1;
+		int length2 = end2 - start2;
+		if (length1 == 0) {
+			// Just add some text (speedup).
+			diff_addRange(diffs, Operation.INSERT, text2, start2, end2);
+		} else if (length2 == 0) {
+			// Just delete some text (speedup).
+			diff_addRange(diffs, Operation.DELETE, text1, start1, end1);
+		} else {
+			int i = length1 > length2 ? diff_indexOfRange(text1, start1, end1, text2, start2, end2)
+					: diff_indexOfRange(text2, start2, end2, text1, start1, end1);
+			if (i != -1) {
+				// Shorter text is inside the longer text (speedup).
+				if (length1 > length2) {
+					diff_addRange(diffs, Operation.DELETE, text1, start1, i);
+					diff_addRange(diffs, Operation.EQUAL, text2, start2, end2);
+					diff_addRange(diffs, Operation.DELETE, text1, i + length2, end1);
+				} else {
+					diff_addRange(diffs, Operation.INSERT, text2, start2, i);
+					diff_addRange(diffs, Operation.EQUAL, text1, start1, end1);
+					diff_addRange(diffs, Operation.INSERT, text2, i + length1, end2);
+				}
+			} else if (length1 == 1 || length2 == 1) {
+				// Single character string.
+				// After the previous speedup, the character can't be an
+				// equality.
+				diff_addRange(diffs, Operation.DELETE, text1, start1, end1);
+				diff_addRange(diffs, Operation.INSERT, text2, start2, end2);
+			} else {
+				diff_bisectRange(text1, start1, end1, text2, start2, end2, deadline, diffs);
+			}
+		}
+
+		// Restore the suffix.
+		diff_addRange(diffs, Operation.EQUAL, text1, end1, end1 + suffix);
+	}
+
+	/**
+	 * Range version of diff_bisect(), appending to diffs instead of returning
+	 * a new list. Takes its V arrays from the pool, and puts them back before
+	 * it recurses.
+	 * 
+	 * @param text1
+	 *            Old text.
+	 * @param start1
+	 *            Start of the range in text1.
+	 * @param end1
+	 *            End of the range in text1 (exclusive).
+	 * @param text2
+	 *            New text.
+	 * @param start2
+	 *            Start of the range in text2.
+	 * @param end2
+	 *            End of the range in text2 (exclusive).
+	 * @param deadline
+	 *            Time at which to bail if not yet complete.
+	 * @param diffs
+	 *            DiffList to append to.
+	 */
+	private void diff_bisectRange(Symbols text1, int start1, int end1, Symbols text2, int start2, int end2,
+			long deadline, DiffList diffs) {
+		int text1_length = end1 - start1;
+		int text2_length = end2 - start2;
+		int max_d = (text1_length + text2_length + 1) / 2;
+		int v_offset = max_d;
+		int v_length = 2 * max_d;
+
+		int[][] scratch = diff_takeScratch(v_length);
+		int[] v1 = scratch[0];
+		int[] v2 = scratch[1];
+		Arrays.fill(v1, 0, v_length, -1);
+		Arrays.fill(v2, 0, v_length, -1);
+
+		v1[v_offset + 1] = 0;
+		v2[v_offset + 1] = 0;
+		int delta = text1_length - text2_length;
+		// If the total number of characters is odd, then the front path will
+		// collide with the reverse path.
+		boolean front = (delta % 2 != 0);
+		// Offsets for start and end of k loop.
+		// Prevents mapping of space beyond the grid.
+		int k1start = 0;
+		int k1end = 0;
+		int k2start = 0;
+		int k2end = 0;
+		for (int d = 0; d < max_d; d++) {
+			// Bail out if deadline is reached.
+			if (System.currentTimeMillis() > deadline) {
+				break;
+			}
+
+			// Walk the front path one step.
+			for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+				int k1_offset = v_offset + k1;
+				int x1;
+				if (k1 == -d || (k1 != d && v1[k1_offset - 1] < v1[k1_offset + 1])) {
+					x1 = v1[k1_offset + 1];
+				} else {
+					x1 = v1[k1_offset - 1] + 1;
+				}
+				int y1 = x1 - k1;
+				if (x1 < text1_length && y1 < text2_length) {
+					int snake = Symbols.commonPrefix(text1, start1 + x1, text2, start2 + y1,
+							Math.min(text1_length - x1, text2_length - y1));
+					x1 += snake;
+					y1 += snake;
+				}
+				v1[k1_offset] = x1;
+				if (x1 > text1_length) {
+					// Ran off the right of the graph.
+					k1end += 2;
+				} else if (y1 > text2_length) {
+					// Ran off the bottom of the graph.
+					k1start += 2;
+				} else if (front) {
+					int k2_offset = v_offset + delta - k1;
+					if (k2_offset >= 0 && k2_offset < v_length && v2[k2_offset] != -1) {
+						// Mirror x2 onto top-left coordinate system.
+						int x2 = text1_length - v2[k2_offset];
+						if (x1 >= x2) {
+							// Overlap detected.
+							diff_releaseScratch(scratch);
+							diff_bisectSplitRange(text1, start1, start1 + x1, end1, text2, start2, start2 + y1, end2,
+									deadline, diffs);
+							return;
+						}
+					}
+				}
+			}
+
+			// Walk the reverse path one step.
+			for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+				int k2_offset = v_offset + k2;
+				int x2;
+				if (k2 == -d || (k2 != d && v2[k2_offset - 1] < v2[k2_offset + 1])) {
+					x2 = v2[k2_offset + 1];
+				} else {
+					x2 = v2[k2_offset - 1] + 1;
+				}
+				int y2 = x2 - k2;
+				if (x2 < text1_length && y2 < text2_length) {
+					int snake = Symbols.commonSuffix(text1, end1 - x2, text2, end2 - y2,
+							Math.min(text1_length - x2, text2_length - y2));
+					x2 += snake;
+					y2 += snake;
+				}
+				v2[k2_offset] = x2;
+				if (x2 > text1_length) {
+					// Ran off the left of the graph.
+					k2end += 2;
+				} else if (y2 > text2_length) {
+					// Ran off the top of the graph.
+					k2start += 2;
+				} else if (!front) {
+					int k1_offset = v_offset + delta - k2;
+					if (k1_offset >= 0 && k1_offset < v_length && v1[k1_offset] != -1) {
+						int x1 = v1[k1_offset];
+						int y1 = v_offset + x1 - k1_offset;
+						// Mirror x2 onto top-left coordinate system.
+						x2 = text1_length - x2;
+						if (x1 >= x2) {
+							// Overlap detected.
+							diff_releaseScratch(scratch);
+							diff_bisectSplitRange(text1, start1, start1 + x1, end1, text2, start2, start2 + y1, end2,
+									deadline, diffs);
+							return;
+						}
+					}
+				}
+			}
+		}
+		diff_releaseScratch(scratch);
+		// Diff took too long and hit the deadline or
+		// number of diffs equals number of characters, no commonality at all.
+		diff_addRange(diffs, Operation.DELETE, text1, start1, end1);
+		diff_addRange(diffs, Operation.INSERT, text2, start2, end2);
+	}
+
+	/**
+	 * Append a Diff of the text of symbols [start, end) to diffs, unless the
+	 * range is empty.
+	 */
+	private void diff_addRange(DiffList diffs, Operation operation, Symbols text, int start, int end) {
+		if (end > start) {
+			diffs.add(new Diff(operation, text.substring(start, end)));
+		}
+	}
+
+	/**
+	 * Find the first occurrence of shorttext[shortStart, shortEnd) in
+	 * longtext[longStart, longEnd).
+	 * 
+	 * @return Index into longtext, or -1 if not found.
+	 */
+	private int diff_indexOfRange(Symbols longtext, int longStart, int longEnd, Symbols shorttext, int shortStart,
+			int shortEnd) {
+		int length = shortEnd - shortStart;
+		for (int i = longStart; i <= longEnd - length; i++) {
+			if (Symbols.commonPrefix(longtext, i, shorttext, shortStart, length) == length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Split two texts into lines. Reduce the texts to a string of hashes where
+	 * each Unicode character represents one line.
+	 * 
+	 * A line that is only in text1 can never be part of an equality, and
+	 * neither can one that is only in text2, so all of the former share one
+	 * character and all of the latter another. Only the lines in both texts
+	 * need characters of their own, which keeps large pages well under the
+	 * 65,535 there are. Since characters can be shared, diff_charsToLines()
+	 * goes by the position of each line rather than by its character.
 	 * 
 	 * @param text1
 	 *            First string.
 	 * @param text2
 	 *            Second string.
-	 * @return An object containing the encoded text1, the encoded text2 and the
-	 *         List of unique strings. The zeroth element of the List of unique
-	 *         strings is intentionally blank.
+	 * @return An object containing the encoded text1, the encoded text2, the
+	 *         id of each of their lines, and where each line starts. If there
+	 *         are too many lines in both texts to give each a character, the
+	 *         encoded texts are null and only the ids can be diffed.
 	 */
 	protected LinesToCharsResult diff_linesToChars(String text1, String text2) {
-		List<String> lineArray = new ArrayList<String>();
-		Map<String, Integer> lineHash = new HashMap<String, Integer>();
-		// e.g. linearray[4] == "Hello\n"
-		// e.g. linehash.get("Hello\n") == 4
+		int[] lineStarts1 = diff_lineStarts(text1);
+		int[] lineStarts2 = diff_lineStarts(text2);
+
+		LineTable table = new LineTable(lineStarts1.length + lineStarts2.length - 2);
+		int[] ids1 = table.intern(text1, lineStarts1, LineTable.IN_TEXT1);
+		int[] ids2 = table.intern(text2, lineStarts2, LineTable.IN_TEXT2);
 
 		// "\x00" is a valid character, but various debuggers don't like it.
-		// So we'll insert a junk entry to avoid generating a null character.
-		lineArray.add("");
+		// So it isn't used.
+		final char only1 = 1;
+		final char only2 = 2;
+		char[] chars1ById = new char[table.size()];
+		char[] chars2ById = new char[table.size()];
+		int next = 3;
+		for (int id = 0; id < table.size(); id++) {
+			if (table.seen(id) != (LineTable.IN_TEXT1 | LineTable.IN_TEXT2)) {
+				chars1ById[id] = only1;
+				chars2ById[id] = only2;
+			} else if (next <= Character.MAX_VALUE) {
+				chars1ById[id] = (char) next;
+				chars2ById[id] = (char) next;
+				next++;
+			} else {
+				return new LinesToCharsResult(null, null, text1, text2, lineStarts1, lineStarts2, ids1, ids2);
+			}
+		}
 
-		String chars1 = diff_linesToCharsMunge(text1, lineArray, lineHash);
-		String chars2 = diff_linesToCharsMunge(text2, lineArray, lineHash);
-		return new LinesToCharsResult(chars1, chars2, lineArray);
+		return new LinesToCharsResult(diff_linesToCharsMunge(ids1, chars1ById), diff_linesToCharsMunge(ids2,
+				chars2ById), text1, text2, lineStarts1, lineStarts2, ids1, ids2);
 	}
 
 	/**
-	 * Split a text into a list of strings. Reduce the texts to a string of
-	 * hashes where each Unicode character represents one line.
+	 * Diff the lines found by diff_linesToChars() and turn them back into
+	 * text. Uses the encoded texts if there are any, or else the range diff
+	 * on the line ids, which has no limit on the number of lines.
+	 * 
+	 * @param lines
+	 *            Result of diff_linesToChars().
+	 * @param checklines
+	 *            Speedup flag, as for diff_main(), when diffing the encoded
+	 *            texts.
+	 * @param deadline
+	 *            Time when the diff should be complete by.
+	 * @return DiffList of Diff objects.
+	 */
+	private DiffList diff_linesMain(LinesToCharsResult lines, boolean checklines, long deadline) {
+		DiffList diffs;
+		if (lines.chars1 != null) {
+			diffs = diff_main(lines.chars1, lines.chars2, checklines, deadline);
+			diff_charsToLines(diffs, lines);
+		} else {
+			diffs = new DiffList();
+			diff_mainRange(new Symbols(lines.ids1, lines.text1, lines.lineStarts1), 0, lines.ids1.length,
+					new Symbols(lines.ids2, lines.text2, lines.lineStarts2), 0, lines.ids2.length, deadline, diffs);
+			diff_cleanupMerge(diffs);
+		}
+		return diffs;
+	}
+
+	/**
+	 * Find where each line of a text starts.
 	 * 
 	 * @param text
-	 *            String to encode.
-	 * @param lineArray
-	 *            List of unique strings.
-	 * @param lineHash
-	 *            Map of strings to indices.
+	 *            String to split.
+	 * @return The index of the start of each line, followed by the length of
+	 *         the text.
+	 */
+	private int[] diff_lineStarts(String text) {
+		int count = 0;
+		for (int i = text.indexOf('\n'); i != -1; i = text.indexOf('\n', i + 1)) {
+			count++;
+		}
+		if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+			// The last line doesn't end with a newline.
+			count++;
+		}
+
+		int[] starts = new int[count + 1];
+		int line = 1;
+		for (int i = text.indexOf('\n'); i != -1; i = text.indexOf('\n', i + 1)) {
+			starts[line++] = i + 1;
+		}
+		starts[count] = text.length();
+		return starts;
+	}
+
+	/**
+	 * Encode a text's lines as a string with one character for each.
+	 * 
+	 * @param ids
+	 *            Id of each line.
+	 * @param charsById
+	 *            Character for each id.
 	 * @return Encoded string.
 	 */
-	private String diff_linesToCharsMunge(String text, List<String> lineArray, Map<String, Integer> lineHash) {
-		int lineStart = 0;
-		int lineEnd = -1;
-		String line;
-		StringBuilder chars = new StringBuilder();
-		// Walk the text, pulling out a substring for each line.
-		// text.split('\n') would would temporarily double our memory footprint.
-		// Modifying text would create many large strings to garbage collect.
-		while (lineEnd < text.length() - 1) {
-			lineEnd = text.indexOf('\n', lineStart);
-			if (lineEnd == -1) {
-				lineEnd = text.length() - 1;
-			}
-			line = text.substring(lineStart, lineEnd + 1);
-			lineStart = lineEnd + 1;
-
-			if (lineHash.containsKey(line)) {
-				chars.append(String.valueOf((char) (int) lineHash.get(line)));
-			} else {
-				lineArray.add(line);
-				lineHash.put(line, lineArray.size() - 1);
-				chars.append(String.valueOf((char) (lineArray.size() - 1)));
-			}
+	private String diff_linesToCharsMunge(int[] ids, char[] charsById) {
+		char[] chars = new char[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			chars[i] = charsById[ids[i]];
 		}
-		return chars.toString();
+		return new String(chars);
 	}
 
 	/**
@@ -596,18 +1296,25 @@ public class diff_match_patch implements Serializable {
 	 * of text.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
-	 * @param lineArray
-	 *            List of unique strings.
+	 *            List of Diff objects.
+	 * @param lines
+	 *            Result of the diff_linesToChars() call the diff was made from.
 	 */
-	protected void diff_charsToLines(LinkedList<Diff> diffs, List<String> lineArray) {
-		StringBuilder text;
+	protected void diff_charsToLines(DiffList diffs, LinesToCharsResult lines) {
+		int line1 = 0;
+		int line2 = 0;
 		for (Diff diff : diffs) {
-			text = new StringBuilder();
-			for (int y = 0; y < diff.text.length(); y++) {
-				text.append(lineArray.get(diff.text.charAt(y)));
+			int count = diff.text.length();
+			if (diff.operation == Operation.INSERT) {
+				diff.text = lines.text2.substring(lines.lineStarts2[line2], lines.lineStarts2[line2 + count]);
+				line2 += count;
+			} else {
+				diff.text = lines.text1.substring(lines.lineStarts1[line1], lines.lineStarts1[line1 + count]);
+				line1 += count;
+				if (diff.operation == Operation.EQUAL) {
+					line2 += count;
+				}
 			}
-			diff.text = text.toString();
 		}
 	}
 
@@ -795,9 +1502,9 @@ public class diff_match_patch implements Serializable {
 	 * equalities.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 */
-	public void diff_cleanupSemantic(LinkedList<Diff> diffs) {
+	public void diff_cleanupSemantic(DiffList diffs) {
 		if (diffs.isEmpty()) {
 			return;
 		}
@@ -805,7 +1512,7 @@ public class diff_match_patch implements Serializable {
 		Stack<Diff> equalities = new Stack<Diff>(); // Stack of qualities.
 		String lastequality = null; // Always equal to
 									// equalities.lastElement().text
-		ListIterator<Diff> pointer = diffs.listIterator();
+		DiffCursor pointer = new DiffCursor(diffs);
 		// Number of characters that changed prior to the equality.
 		int length_insertions1 = 0;
 		int length_deletions1 = 0;
@@ -878,6 +1585,8 @@ public class diff_match_patch implements Serializable {
 			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
 
+		pointer.finish();
+
 		// Normalize the diff.
 		if (changes) {
 			diff_cleanupMerge(diffs);
@@ -891,7 +1600,7 @@ public class diff_match_patch implements Serializable {
 		// -> <ins>def</ins>xxx<del>abc</del>
 		// Only extract an overlap if it is as big as the edit ahead or behind
 		// it.
-		pointer = diffs.listIterator();
+		pointer = new DiffCursor(diffs);
 		Diff prevDiff = null;
 		thisDiff = null;
 		if (pointer.hasNext()) {
@@ -939,6 +1648,7 @@ public class diff_match_patch implements Serializable {
 			prevDiff = thisDiff;
 			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
+		pointer.finish();
 	}
 
 	/**
@@ -947,16 +1657,16 @@ public class diff_match_patch implements Serializable {
 	 * c</ins>ame. -> The <ins>cat </ins>came.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 */
-	public void diff_cleanupSemanticLossless(LinkedList<Diff> diffs) {
+	public void diff_cleanupSemanticLossless(DiffList diffs) {
 		String equality1, edit, equality2;
 		String commonString;
 		int commonOffset;
 		int score, bestScore;
 		String bestEquality1, bestEdit, bestEquality2;
 		// Create a new iterator at the start.
-		ListIterator<Diff> pointer = diffs.listIterator();
+		DiffCursor pointer = new DiffCursor(diffs);
 		Diff prevDiff = pointer.hasNext() ? pointer.next() : null;
 		Diff thisDiff = pointer.hasNext() ? pointer.next() : null;
 		Diff nextDiff = pointer.hasNext() ? pointer.next() : null;
@@ -1025,6 +1735,7 @@ public class diff_match_patch implements Serializable {
 			thisDiff = nextDiff;
 			nextDiff = pointer.hasNext() ? pointer.next() : null;
 		}
+		pointer.finish();
 	}
 
 	/**
@@ -1088,9 +1799,9 @@ public class diff_match_patch implements Serializable {
 	 * equalities.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 */
-	public void diff_cleanupEfficiency(LinkedList<Diff> diffs) {
+	public void diff_cleanupEfficiency(DiffList diffs) {
 		if (diffs.isEmpty()) {
 			return;
 		}
@@ -1098,7 +1809,7 @@ public class diff_match_patch implements Serializable {
 		Stack<Diff> equalities = new Stack<Diff>(); // Stack of equalities.
 		String lastequality = null; // Always equal to
 									// equalities.lastElement().text
-		ListIterator<Diff> pointer = diffs.listIterator();
+		DiffCursor pointer = new DiffCursor(diffs);
 		// Is there an insertion operation before the last equality.
 		boolean pre_ins = false;
 		// Is there a deletion operation before the last equality.
@@ -1191,6 +1902,7 @@ public class diff_match_patch implements Serializable {
 			}
 			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
+		pointer.finish();
 
 		if (changes) {
 			diff_cleanupMerge(diffs);
@@ -1202,12 +1914,12 @@ public class diff_match_patch implements Serializable {
 	 * can move as long as it doesn't cross an equality.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 */
-	public void diff_cleanupMerge(LinkedList<Diff> diffs) {
+	public void diff_cleanupMerge(DiffList diffs) {
 		diffs.add(new Diff(Operation.EQUAL, "")); // Add a dummy entry at the
 													// end.
-		ListIterator<Diff> pointer = diffs.listIterator();
+		DiffCursor pointer = new DiffCursor(diffs);
 		int count_delete = 0;
 		int count_insert = 0;
 		String text_delete = "";
@@ -1290,6 +2002,7 @@ public class diff_match_patch implements Serializable {
 			}
 			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
+		pointer.finish();
 		if (diffs.getLast().text.length() == 0) {
 			diffs.removeLast(); // Remove the dummy entry at the end.
 		}
@@ -1302,7 +2015,7 @@ public class diff_match_patch implements Serializable {
 		boolean changes = false;
 		// Create a new iterator at the start.
 		// (As opposed to walking the current one back.)
-		pointer = diffs.listIterator();
+		pointer = new DiffCursor(diffs);
 		Diff prevDiff = pointer.hasNext() ? pointer.next() : null;
 		thisDiff = pointer.hasNext() ? pointer.next() : null;
 		Diff nextDiff = pointer.hasNext() ? pointer.next() : null;
@@ -1336,6 +2049,7 @@ public class diff_match_patch implements Serializable {
 			thisDiff = nextDiff;
 			nextDiff = pointer.hasNext() ? pointer.next() : null;
 		}
+		pointer.finish();
 		// If shifts were made, the diff needs reordering and another shift
 		// sweep.
 		if (changes) {
@@ -1348,12 +2062,12 @@ public class diff_match_patch implements Serializable {
 	 * text2. e.g. "The cat" vs "The big cat", 1->1, 5->8
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 * @param loc
 	 *            Location within text1.
 	 * @return Location within text2.
 	 */
-	public int diff_xIndex(LinkedList<Diff> diffs, int loc) {
+	public int diff_xIndex(List<Diff> diffs, int loc) {
 		int chars1 = 0;
 		int chars2 = 0;
 		int last_chars1 = 0;
@@ -1388,10 +2102,10 @@ public class diff_match_patch implements Serializable {
 	 * Convert a Diff list into a pretty HTML report.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 * @return HTML representation.
 	 */
-	public String diff_prettyHtml(LinkedList<Diff> diffs) {
+	public String diff_prettyHtml(List<Diff> diffs) {
 		StringBuilder html = new StringBuilder();
 		for (Diff aDiff : diffs) {
 			String text = aDiff.text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
@@ -1415,10 +2129,10 @@ public class diff_match_patch implements Serializable {
 	 * Compute and return the source text (all equalities and deletions).
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 * @return Source text.
 	 */
-	public String diff_text1(LinkedList<Diff> diffs) {
+	public String diff_text1(List<Diff> diffs) {
 		StringBuilder text = new StringBuilder();
 		for (Diff aDiff : diffs) {
 			if (aDiff.operation != Operation.INSERT) {
@@ -1432,10 +2146,10 @@ public class diff_match_patch implements Serializable {
 	 * Compute and return the destination text (all equalities and insertions).
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 * @return Destination text.
 	 */
-	public String diff_text2(LinkedList<Diff> diffs) {
+	public String diff_text2(List<Diff> diffs) {
 		StringBuilder text = new StringBuilder();
 		for (Diff aDiff : diffs) {
 			if (aDiff.operation != Operation.DELETE) {
@@ -1450,10 +2164,10 @@ public class diff_match_patch implements Serializable {
 	 * substituted characters.
 	 * 
 	 * @param diffs
-	 *            LinkedList of Diff objects.
+	 *            List of Diff objects.
 	 * @return Number of changes.
 	 */
-	public int diff_levenshtein(LinkedList<Diff> diffs) {
+	public int diff_levenshtein(List<Diff> diffs) {
 		int levenshtein = 0;
 		int insertions = 0;
 		int deletions = 0;
@@ -1487,7 +2201,7 @@ public class diff_match_patch implements Serializable {
 	 *            Array of Diff objects.
 	 * @return Delta text.
 	 */
-	public String diff_toDelta(LinkedList<Diff> diffs) {
+	public String diff_toDelta(List<Diff> diffs) {
 		StringBuilder text = new StringBuilder();
 		for (Diff aDiff : diffs) {
 			switch (aDiff.operation) {
@@ -1528,8 +2242,8 @@ public class diff_match_patch implements Serializable {
 	 * @throws IllegalArgumentException
 	 *             If invalid input.
 	 */
-	public LinkedList<Diff> diff_fromDelta(String text1, String delta) throws IllegalArgumentException {
-		LinkedList<Diff> diffs = new LinkedList<Diff>();
+	public DiffList diff_fromDelta(String text1, String delta) throws IllegalArgumentException {
+		DiffList diffs = new DiffList();
 		int pointer = 0; // Cursor in text1
 		String[] tokens = delta.split("\t");
 		for (String token : tokens) {
@@ -1845,7 +2559,7 @@ public class diff_match_patch implements Serializable {
 			throw new IllegalArgumentException("Null inputs. (patch_make)");
 		}
 		// No diffs provided, compute our own.
-		LinkedList<Diff> diffs = diff_main(text1, text2, true);
+		DiffList diffs = diff_main(text1, text2, true);
 		if (diffs.size() > 2) {
 			diff_cleanupSemantic(diffs);
 			diff_cleanupEfficiency(diffs);
@@ -1861,7 +2575,7 @@ public class diff_match_patch implements Serializable {
 	 *            Array of Diff objects for text1 to text2.
 	 * @return LinkedList of Patch objects.
 	 */
-	public LinkedList<Patch> patch_make(LinkedList<Diff> diffs) {
+	public LinkedList<Patch> patch_make(List<Diff> diffs) {
 		if (diffs == null) {
 			throw new IllegalArgumentException("Null inputs. (patch_make)");
 		}
@@ -1881,9 +2595,9 @@ public class diff_match_patch implements Serializable {
 	 * @param diffs
 	 *            Array of Diff objects for text1 to text2.
 	 * @return LinkedList of Patch objects.
-	 * @deprecated Prefer patch_make(String text1, LinkedList<Diff> diffs).
+	 * @deprecated Prefer patch_make(String text1, List<Diff> diffs).
 	 */
-	public LinkedList<Patch> patch_make(String text1, String text2, LinkedList<Diff> diffs) {
+	public LinkedList<Patch> patch_make(String text1, String text2, List<Diff> diffs) {
 		return patch_make(text1, diffs);
 	}
 
@@ -1897,7 +2611,7 @@ public class diff_match_patch implements Serializable {
 	 *            Array of Diff objects for text1 to text2.
 	 * @return LinkedList of Patch objects.
 	 */
-	public LinkedList<Patch> patch_make(String text1, LinkedList<Diff> diffs) {
+	public LinkedList<Patch> patch_make(String text1, List<Diff> diffs) {
 		if (text1 == null || diffs == null) {
 			throw new IllegalArgumentException("Null inputs. (patch_make)");
 		}
@@ -1936,7 +2650,8 @@ public class diff_match_patch implements Serializable {
 						+ postpatch_text.substring(char_count2 + aDiff.text.length());
 				break;
 			case EQUAL:
-				if (aDiff.text.length() <= 2 * Patch_Margin && !patch.diffs.isEmpty() && aDiff != diffs.getLast()) {
+				if (aDiff.text.length() <= 2 * Patch_Margin && !patch.diffs.isEmpty()
+						&& aDiff != diffs.get(diffs.size() - 1)) {
 					// Small equality inside a patch.
 					patch.diffs.add(aDiff);
 					patch.length1 += aDiff.text.length();
@@ -2080,7 +2795,7 @@ public class diff_match_patch implements Serializable {
 					// Imperfect match. Run a diff to get a framework of
 					// equivalent
 					// indices.
-					LinkedList<Diff> diffs = diff_main(text1, text2, false);
+					DiffList diffs = diff_main(text1, text2, false);
 					if (text1.length() > this.Match_MaxBits
 							&& diff_levenshtein(diffs) / (float) text1.length() > this.Patch_DeleteThreshold) {
 						// The end points match, but the content is unacceptably
@@ -2473,6 +3188,181 @@ public class diff_match_patch implements Serializable {
 		}
 	}
 
+	/**
+	 * Array-backed list of Diff objects, used by the diff and cleanup passes
+	 * instead of a LinkedList. Indexed access is constant time and the Diffs
+	 * are stored contiguously; the cleanup passes, which remove and insert as
+	 * they walk the list, go through a DiffCursor. The Deque-style methods
+	 * below are there so that code written against LinkedList&lt;Diff&gt;
+	 * keeps compiling; removing from or adding to the front shifts the whole
+	 * array.
+	 */
+	public static class DiffList extends ArrayList<Diff> {
+		private static final long serialVersionUID = 4170383937435437316L;
+
+		public DiffList() {
+			super();
+		}
+
+		public DiffList(int initialCapacity) {
+			super(initialCapacity);
+		}
+
+		public DiffList(Collection<? extends Diff> diffs) {
+			super(diffs);
+		}
+
+		public void addFirst(Diff diff) {
+			add(0, diff);
+		}
+
+		public void addLast(Diff diff) {
+			add(diff);
+		}
+
+		public Diff getFirst() {
+			if (isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return get(0);
+		}
+
+		public Diff getLast() {
+			if (isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return get(size() - 1);
+		}
+
+		public Diff removeFirst() {
+			if (isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return remove(0);
+		}
+
+		public Diff removeLast() {
+			if (isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return remove(size() - 1);
+		}
+
+		/**
+		 * Copy into a LinkedList, for code that needs one.
+		 */
+		public LinkedList<Diff> toLinkedList() {
+			return new LinkedList<Diff>(this);
+		}
+	}
+
+	/**
+	 * ListIterator over a DiffList for the cleanup passes, which remove and
+	 * insert as they walk. ArrayList's own iterator shifts the rest of the
+	 * array on every remove or add, which makes those passes quadratic. This
+	 * one keeps a gap at the cursor instead: the Diffs before the cursor are
+	 * at [0, write) and those after it at [read, size), so moving, removing
+	 * and adding only touch the edges of the gap. finish() closes the gap
+	 * with a single shift, and must be called before the list is used again.
+	 */
+	private static class DiffCursor implements ListIterator<Diff> {
+		private final DiffList diffs;
+		private int write = 0;
+		private int read = 0;
+
+		// 1 if the last Diff returned came from next(), -1 if it came from
+		// previous(), 0 if it has since been removed or added after
+		private int last = 0;
+
+		DiffCursor(DiffList diffs) {
+			this.diffs = diffs;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read < diffs.size();
+		}
+
+		@Override
+		public Diff next() {
+			if (read == diffs.size()) {
+				throw new NoSuchElementException();
+			}
+			Diff diff = diffs.get(read++);
+			diffs.set(write++, diff);
+			last = 1;
+			return diff;
+		}
+
+		@Override
+		public boolean hasPrevious() {
+			return write > 0;
+		}
+
+		@Override
+		public Diff previous() {
+			if (write == 0) {
+				throw new NoSuchElementException();
+			}
+			Diff diff = diffs.get(--write);
+			diffs.set(--read, diff);
+			last = -1;
+			return diff;
+		}
+
+		@Override
+		public int nextIndex() {
+			return write;
+		}
+
+		@Override
+		public int previousIndex() {
+			return write - 1;
+		}
+
+		@Override
+		public void remove() {
+			if (last == 0) {
+				throw new IllegalStateException();
+			}
+			if (last > 0) {
+				write--;
+			} else {
+				read++;
+			}
+			last = 0;
+		}
+
+		@Override
+		public void set(Diff diff) {
+			if (last == 0) {
+				throw new IllegalStateException();
+			}
+			diffs.set(last > 0 ? write - 1 : read, diff);
+		}
+
+		@Override
+		public void add(Diff diff) {
+			if (write == read) {
+				// Out of room; widen the gap in proportion to the list, so
+				// that adding stays amortized constant time.
+				int room = Math.max(16, diffs.size() / 2);
+				diffs.addAll(read, Collections.<Diff> nCopies(room, null));
+				read += room;
+			}
+			diffs.set(write++, diff);
+			last = 0;
+		}
+
+		void finish() {
+			if (read > write) {
+				diffs.subList(write, read).clear();
+				read = write;
+			}
+			last = 0;
+		}
+	}
+
 	/**
 	 * Class representing one patch operation.
 	 */